@@ -22,7 +22,7 @@ import android.widget.ListView;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.pt.ifp.neolauncher.R;
 import com.pt.ifp.neolauncher.adapter.HiddenAppsAdapter;
@@ -40,6 +40,7 @@ public class HiddenAppsActivity extends Activity {
 	private View progressView;
 	private ListView listView;
 	private HiddenAppsAdapter adapter;
+	private Future<?> loadTask;
 
 	public static void start(Context context) {
 		context.startActivity(new Intent(context, HiddenAppsActivity.class));
@@ -90,6 +91,12 @@ public class HiddenAppsActivity extends Activity {
 		loadHiddenApps(); // Because the list may have changed.
 	}
 
+	@Override
+	protected void onDestroy() {
+		cancelLoadHiddenApps();
+		super.onDestroy();
+	}
+
 	private void initListView() {
 		listView = findViewById(R.id.apps);
 		listView.setEmptyView(findViewById(R.id.no_hidden_apps));
@@ -130,11 +137,16 @@ public class HiddenAppsActivity extends Activity {
 
 	private void loadHiddenApps() {
 		progressView.setVisibility(View.VISIBLE);
-		Executors.newSingleThreadExecutor().execute(() -> {
+		cancelLoadHiddenApps();
+		ArrayList<ComponentName> componentNames = new ArrayList<>(
+				NeoLauncherApp.appMenu.hiddenApps.componentNames);
+		loadTask = NeoLauncherApp.executor.executeInteractive(() -> {
 			final ArrayList<HiddenAppsAdapter.HiddenApp> hiddenApps =
 					new ArrayList<>();
-			for (ComponentName componentName :
-					NeoLauncherApp.appMenu.hiddenApps.componentNames) {
+			for (ComponentName componentName : componentNames) {
+				if (Thread.currentThread().isInterrupted()) {
+					return;
+				}
 				Pair<String, Drawable> nameAndIcon = getAppNameAndIcon(
 						this, componentName.getPackageName());
 				if (nameAndIcon != null) {
@@ -152,6 +164,13 @@ public class HiddenAppsActivity extends Activity {
 		});
 	}
 
+	private void cancelLoadHiddenApps() {
+		if (loadTask != null) {
+			loadTask.cancel(true);
+			loadTask = null;
+		}
+	}
+
 	private static Pair<String, Drawable> getAppNameAndIcon(Context context,
 			String packageName) {
 		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
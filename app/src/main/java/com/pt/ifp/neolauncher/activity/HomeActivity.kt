@@ -466,9 +466,12 @@ class HomeActivity : ComponentActivity() {
                 if (endsWithDoubleSpace(e)) {
                     pieView.launchSelectedAppFromList()
                 }
-                updateAppList()
-                if (prefs.autoLaunchMatching() && pieView.iconCount == 1) {
-                    pieView.launchSelectedAppFromList()
+                // The list is filtered in the background so check the
+                // number of matches once the new list is there.
+                updateAppList {
+                    if (prefs.autoLaunchMatching() && pieView.iconCount == 1) {
+                        pieView.launchSelectedAppFromList()
+                    }
                 }
             }
         })
@@ -599,8 +602,8 @@ class HomeActivity : ComponentActivity() {
     private val isGestureNavigationEnabled: Boolean
         get() = Settings.Secure.getInt(contentResolver, "navigation_mode", 0) == 2
 
-    private fun updateAppList() {
-        pieView.filterAppList(searchInput.text.toString())
+    private fun updateAppList(onFiltered: Runnable? = null) {
+        pieView.filterAppList(searchInput.text.toString(), onFiltered)
     }
 
     private inner class FlingListener(private val minimumVelocity: Int) :
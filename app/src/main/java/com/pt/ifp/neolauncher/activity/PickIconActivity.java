@@ -20,12 +20,14 @@ import android.widget.GridView;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.pt.ifp.neolauncher.R;
 import com.pt.ifp.neolauncher.adapter.PickIconAdapter;
 import com.pt.ifp.neolauncher.app.NeoLauncherApp;
+import com.pt.ifp.neolauncher.content.AppIndex;
+import com.pt.ifp.neolauncher.content.DrawableNameIndex;
+import com.pt.ifp.neolauncher.content.LauncherItemKey;
 import com.pt.ifp.neolauncher.graphics.BackgroundBlur;
 import com.pt.ifp.neolauncher.graphics.IconPack;
 import com.pt.ifp.neolauncher.graphics.ToolbarBackground;
@@ -49,8 +51,15 @@ public class PickIconActivity extends Activity {
 	private String iconPackPackageName;
 	private GridView gridView;
 	private EditText searchInput;
-	private ArrayList<String> drawableNames;
+	private ComponentName componentName;
+	private DrawableNameIndex nameIndex;
 	private PickIconAdapter iconAdapter;
+	private Future<?> loadTask;
+	private Future<?> searchTask;
+	private int searchVersion;
+	// Last query and its result so longer queries only narrow it.
+	private String lastQuery;
+	private int[] lastResult;
 
 	public static void start(Context context, ComponentName componentName) {
 		Intent intent = new Intent(context, PickIconActivity.class);
@@ -133,6 +142,10 @@ public class PickIconActivity extends Activity {
 				if (visibleItemCount < 1) {
 					return;
 				}
+				if (iconAdapter != null) {
+					iconAdapter.prefetch(firstVisibleItem, visibleItemCount,
+							gridView.getNumColumns());
+				}
 				int y = 0xffff;
 				if (firstVisibleItem == 0) {
 					View child = view.getChildAt(firstVisibleItem);
@@ -150,7 +163,18 @@ public class PickIconActivity extends Activity {
 				toolbarBackground.backgroundColor);
 	}
 
+	@Override
+	protected void onDestroy() {
+		cancelLoadPack();
+		cancelSearch();
+		if (iconAdapter != null) {
+			iconAdapter.cancelAll();
+		}
+		super.onDestroy();
+	}
+
 	private void initGridView(ComponentName componentName) {
+		this.componentName = componentName;
 		gridView = findViewById(R.id.icons);
 		gridView.setOnItemClickListener((parent, view, position, id) -> {
 			NeoLauncherApp.iconPack.addMapping(
@@ -179,23 +203,67 @@ public class PickIconActivity extends Activity {
 
 			@Override
 			public void afterTextChanged(Editable e) {
-				if (iconAdapter == null) {
-					return;
-				}
-				iconAdapter.clear();
-				String query = e.toString();
-				Locale defaultLocale = Locale.getDefault();
-				for (int i = 0, size = drawableNames.size(); i < size; ++i) {
-					if (drawableNames.get(i).toLowerCase(defaultLocale)
-							.contains(query.toLowerCase(defaultLocale))) {
-						iconAdapter.add(drawableNames.get(i));
-					}
-				}
+				search(e.toString());
 			}
 		});
 		searchInput.post(searchInput::requestFocus);
 	}
 
+	private void search(String query) {
+		if (nameIndex == null || iconAdapter == null) {
+			return;
+		}
+		cancelSearch();
+		DrawableNameIndex index = nameIndex;
+		int[] candidates = lastQuery != null && query.startsWith(lastQuery)
+				? lastResult
+				: null;
+		int version = ++searchVersion;
+		searchTask = NeoLauncherApp.executor.executeInteractive(() -> {
+			int[] result = index.search(query, candidates);
+			handler.post(() -> {
+				if (version != searchVersion || index != nameIndex) {
+					// There's a newer search.
+					return;
+				}
+				searchTask = null;
+				lastQuery = query;
+				lastResult = result;
+				showNames(index, result);
+			});
+		});
+	}
+
+	private void showNames(DrawableNameIndex index, int[] ids) {
+		ArrayList<String> names = new ArrayList<>(ids.length);
+		for (int id : ids) {
+			names.add(index.getName(id));
+		}
+		iconAdapter.setNotifyOnChange(false);
+		iconAdapter.clear();
+		iconAdapter.addAll(names);
+		iconAdapter.notifyDataSetChanged();
+	}
+
+	private void cancelSearch() {
+		if (searchTask != null) {
+			searchTask.cancel(false);
+			searchTask = null;
+		}
+	}
+
+	// Returns the label of the target app from the app index.
+	private static String getLabel(ComponentName componentName) {
+		AppIndex index = NeoLauncherApp.appMenu.getIndex();
+		for (LauncherItemKey key : index.getKeys(
+				componentName.getPackageName(), null)) {
+			if (componentName.equals(key.componentName)) {
+				return index.get(key).label;
+			}
+		}
+		return null;
+	}
+
 	private void initReset(ComponentName componentName) {
 		View resetButton = findViewById(R.id.reset);
 		if (NeoLauncherApp.iconPack.hasMapping(componentName)) {
@@ -262,27 +330,51 @@ public class PickIconActivity extends Activity {
 			return;
 		}
 		progressView.setVisibility(View.VISIBLE);
-		Executors.newSingleThreadExecutor().execute(() -> {
+		cancelLoadPack();
+		loadTask = NeoLauncherApp.executor.executeInteractive(() -> {
 			IconPack.Pack pack = NeoLauncherApp.iconPack.packs.get(
 					packageName);
-			if (pack != null) {
-				iconPackPackageName = packageName;
-				drawableNames = pack.getDrawableNames();
+			// Names that fit the app best come first.
+			DrawableNameIndex index = pack != null
+					? new DrawableNameIndex(pack.getDrawableNames(this),
+							componentName.getPackageName(),
+							getLabel(componentName))
+					: null;
+			if (Thread.currentThread().isInterrupted()) {
+				// Cancelled because another pack was picked.
+				return;
 			}
 			handler.post(() -> {
 				progressView.setVisibility(View.GONE);
-				if (pack == null) {
+				if (index == null) {
 					return;
 				}
+				iconPackPackageName = packageName;
+				cancelSearch();
+				nameIndex = index;
+				if (iconAdapter != null) {
+					iconAdapter.cancelAll();
+				}
 				iconAdapter = new PickIconAdapter(this,
 						iconPackPackageName,
-						new ArrayList<>(drawableNames));
+						new ArrayList<>());
 				gridView.setAdapter(iconAdapter);
+				lastQuery = null;
+				lastResult = null;
 				searchInput.getText().clear();
+				// Clearing doesn't trigger a search if it's empty.
+				search("");
 			});
 		});
 	}
 
+	private void cancelLoadPack() {
+		if (loadTask != null) {
+			loadTask.cancel(true);
+			loadTask = null;
+		}
+	}
+
 	private static ComponentName getComponentNameFromIntent(Intent intent) {
 		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU) {
 			//noinspection deprecation
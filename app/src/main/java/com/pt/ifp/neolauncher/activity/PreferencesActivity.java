@@ -502,6 +502,8 @@ public class PreferencesActivity extends Activity {
 				R.string.search_strictness_contains);
 		map.put(Preferences.SEARCH_STRICTNESS_STARTS_WITH,
 				R.string.search_strictness_starts_with);
+		map.put(Preferences.SEARCH_STRICTNESS_FUZZY,
+				R.string.search_strictness_fuzzy);
 		return map;
 	}
 
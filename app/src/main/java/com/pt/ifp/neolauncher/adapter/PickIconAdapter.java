@@ -1,6 +1,11 @@
 package com.pt.ifp.neolauncher.adapter;
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -8,18 +13,41 @@ import android.widget.ArrayAdapter;
 import android.widget.ImageView;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Future;
 
 import com.pt.ifp.neolauncher.R;
 import com.pt.ifp.neolauncher.app.NeoLauncherApp;
+import com.pt.ifp.neolauncher.graphics.Converter;
 import com.pt.ifp.neolauncher.graphics.IconPack;
 
 public class PickIconAdapter extends ArrayAdapter<String> {
+	// Number of rows that are loaded ahead of the scroll direction.
+	private static final int PREFETCH_ROWS = 2;
+
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	// Thumbnails by drawable name. Main thread only.
+	private final LruCache<String, Bitmap> thumbnails = new LruCache<
+			String, Bitmap>((int) (Runtime.getRuntime().maxMemory() / 32)) {
+		@Override
+		protected int sizeOf(String name, Bitmap bitmap) {
+			return bitmap.getByteCount();
+		}
+	};
+	// Decodes that are queued or running. Main thread only.
+	private final HashMap<String, Future<?>> loading = new HashMap<>();
+	private final ArrayList<ViewHolder> holders = new ArrayList<>();
 	private final IconPack.Pack pack;
+	private final int thumbnailSize;
+
+	private int lastFirstPosition;
 
 	public PickIconAdapter(Context context,
 			String iconPackageName, ArrayList<String> icons) {
 		super(context, 0, icons);
 		pack = NeoLauncherApp.iconPack.packs.get(iconPackageName);
+		thumbnailSize = context.getResources().getDimensionPixelSize(
+				R.dimen.icon_size);
 	}
 
 	@Override
@@ -31,24 +59,101 @@ public class PickIconAdapter extends ArrayAdapter<String> {
 		}
 		ViewHolder holder = getViewHolder(convertView);
 		String name = getItem(position);
-		if (pack != null) {
-			holder.iconView.setImageDrawable(pack.getDrawable(name));
+		if (holder.name != null && !holder.name.equals(name)) {
+			// The cell has been recycled, so its icon isn't needed
+			// anymore.
+			cancel(holder.name);
+		}
+		holder.name = name;
+		Bitmap thumbnail = thumbnails.get(name);
+		holder.iconView.setImageBitmap(thumbnail);
+		if (thumbnail == null) {
+			load(name);
 		}
 		holder.iconView.setContentDescription(name);
 		return convertView;
 	}
 
+	/**
+	 * Loads the thumbnails of the rows ahead of the scroll direction.
+	 */
+	public void prefetch(int firstPosition, int visibleCount, int columns) {
+		int count = getCount();
+		int ahead = Math.max(1, columns) * PREFETCH_ROWS;
+		int from;
+		int to;
+		if (firstPosition >= lastFirstPosition) {
+			from = firstPosition + visibleCount;
+			to = Math.min(count, from + ahead);
+		} else {
+			to = firstPosition;
+			from = Math.max(0, to - ahead);
+		}
+		lastFirstPosition = firstPosition;
+		for (int i = from; i < to; ++i) {
+			String name = getItem(i);
+			if (thumbnails.get(name) == null) {
+				load(name);
+			}
+		}
+	}
+
+	/**
+	 * Cancels all pending decodes. Must be called when the adapter
+	 * isn't used anymore.
+	 */
+	public void cancelAll() {
+		for (Future<?> task : loading.values()) {
+			task.cancel(false);
+		}
+		loading.clear();
+	}
+
 	ViewHolder getViewHolder(View view) {
 		ViewHolder holder;
 		if ((holder = (ViewHolder) view.getTag()) == null) {
 			holder = new ViewHolder();
 			holder.iconView = view.findViewById(R.id.icon);
 			view.setTag(holder);
+			holders.add(holder);
 		}
 		return holder;
 	}
 
+	private void load(String name) {
+		if (pack == null || loading.containsKey(name)) {
+			return;
+		}
+		loading.put(name, NeoLauncherApp.executor.executeInteractive(() -> {
+			Drawable drawable = pack.getDrawable(name);
+			Bitmap bitmap = drawable != null
+					? Converter.getBitmapFromDrawable(drawable,
+							thumbnailSize)
+					: null;
+			handler.post(() -> {
+				if (loading.remove(name) == null || bitmap == null) {
+					// Cancelled in the meantime.
+					return;
+				}
+				thumbnails.put(name, bitmap);
+				for (ViewHolder holder : holders) {
+					if (name.equals(holder.name)) {
+						holder.iconView.setImageBitmap(bitmap);
+					}
+				}
+			});
+		}));
+	}
+
+	private void cancel(String name) {
+		Future<?> task = loading.remove(name);
+		if (task != null) {
+			task.cancel(false);
+		}
+	}
+
 	private static final class ViewHolder {
 		private ImageView iconView;
+		private String name;
 	}
 }
@@ -0,0 +1,252 @@
+package com.pt.ifp.neolauncher.app;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.pt.ifp.neolauncher.BuildConfig;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Application-wide executor with a bounded number of threads.
+ * Interactive tasks are always taken from the queue before
+ * background tasks, and background tasks never occupy all threads
+ * so there's always one left for interactive tasks. Exceptions
+ * thrown by a task are rethrown on the main thread.
+ */
+public class LauncherExecutor {
+	public static final int PRIORITY_INTERACTIVE = 0;
+	public static final int PRIORITY_BACKGROUND = 1;
+
+	private static final String TAG = "LauncherExecutor";
+	private static final int LANES = 2;
+	private static final long KEEP_ALIVE_SECONDS = 30L;
+	// Waits by priority that are logged in debug builds. Interactive
+	// tasks that wait for more than a few frames are noticeable.
+	private static final long[] SLOW_WAIT_MILLIS = new long[]{50L, 1000L};
+
+	private final Lane[] lanes = new Lane[]{new Lane(), new Lane()};
+	private final AtomicLong sequence = new AtomicLong();
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	// Background tasks that wait for a free background slot.
+	private final ArrayDeque<Task> waitingBackground = new ArrayDeque<>();
+	private final ThreadPoolExecutor executor;
+	private final int maxBackground;
+
+	private int runningBackground;
+
+	private static class Lane {
+		private final AtomicInteger queued = new AtomicInteger();
+		private final AtomicInteger completed = new AtomicInteger();
+		private final AtomicInteger cancelled = new AtomicInteger();
+		private final AtomicLong totalWaitMillis = new AtomicLong();
+		private final AtomicLong maxWaitMillis = new AtomicLong();
+		private final AtomicLong totalRunMillis = new AtomicLong();
+	}
+
+	private class Task extends FutureTask<Void> implements Comparable<Task> {
+		private final int priority;
+		private final long seq;
+		private final long queuedAt;
+
+		private Task(int priority, Runnable runnable) {
+			super(runnable, null);
+			this.priority = priority;
+			this.seq = sequence.getAndIncrement();
+			this.queuedAt = SystemClock.uptimeMillis();
+		}
+
+		@Override
+		public void run() {
+			try {
+				runTask();
+			} finally {
+				if (priority == PRIORITY_BACKGROUND) {
+					finishBackground();
+				}
+			}
+		}
+
+		@Override
+		protected void done() {
+			if (isCancelled()) {
+				return;
+			}
+			try {
+				get();
+			} catch (InterruptedException e) {
+				// Ignore.
+			} catch (ExecutionException e) {
+				// Nobody calls get() on these futures, so the failure
+				// would go unnoticed otherwise.
+				Throwable cause = e.getCause();
+				handler.post(() -> {
+					if (cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					} else if (cause instanceof Error) {
+						throw (Error) cause;
+					}
+					throw new RuntimeException(cause);
+				});
+			}
+		}
+
+		private void runTask() {
+			Lane lane = lanes[priority];
+			lane.queued.decrementAndGet();
+			if (isCancelled()) {
+				lane.cancelled.incrementAndGet();
+				return;
+			}
+			long start = SystemClock.uptimeMillis();
+			long wait = start - queuedAt;
+			lane.totalWaitMillis.addAndGet(wait);
+			updateMax(lane.maxWaitMillis, wait);
+			if (BuildConfig.DEBUG && wait > SLOW_WAIT_MILLIS[priority]) {
+				logSlowWait(priority, wait);
+			}
+			if (priority == PRIORITY_BACKGROUND) {
+				Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+			}
+			try {
+				super.run();
+			} finally {
+				if (priority == PRIORITY_BACKGROUND) {
+					Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+				}
+				lane.totalRunMillis.addAndGet(
+						SystemClock.uptimeMillis() - start);
+				lane.completed.incrementAndGet();
+			}
+		}
+
+		@Override
+		public int compareTo(Task other) {
+			if (priority != other.priority) {
+				return priority < other.priority ? -1 : 1;
+			}
+			return Long.compare(seq, other.seq);
+		}
+	}
+
+	public LauncherExecutor() {
+		this(Math.max(2, Math.min(4,
+				Runtime.getRuntime().availableProcessors() - 1)));
+	}
+
+	public LauncherExecutor(int threads) {
+		AtomicInteger count = new AtomicInteger();
+		ThreadFactory factory = runnable -> new Thread(runnable,
+				"launcher-" + count.incrementAndGet());
+		executor = new ThreadPoolExecutor(threads, threads,
+				KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new PriorityBlockingQueue<>(), factory);
+		executor.allowCoreThreadTimeOut(true);
+		maxBackground = Math.max(1, threads - 1);
+	}
+
+	/**
+	 * Runs the given runnable on a pool thread. Use the returned
+	 * Future to cancel the task.
+	 */
+	public Future<?> execute(int priority, Runnable runnable) {
+		if (priority < 0 || priority >= LANES) {
+			throw new IllegalArgumentException("Invalid priority " + priority);
+		}
+		Task task = new Task(priority, runnable);
+		lanes[priority].queued.incrementAndGet();
+		if (priority == PRIORITY_BACKGROUND) {
+			synchronized (waitingBackground) {
+				if (runningBackground >= maxBackground) {
+					waitingBackground.add(task);
+					return task;
+				}
+				++runningBackground;
+			}
+		}
+		executor.execute(task);
+		return task;
+	}
+
+	public Future<?> executeInteractive(Runnable runnable) {
+		return execute(PRIORITY_INTERACTIVE, runnable);
+	}
+
+	public Future<?> executeInBackground(Runnable runnable) {
+		return execute(PRIORITY_BACKGROUND, runnable);
+	}
+
+	public int getQueueDepth(int priority) {
+		return lanes[priority].queued.get();
+	}
+
+	public int getCompletedCount(int priority) {
+		return lanes[priority].completed.get();
+	}
+
+	public int getCancelledCount(int priority) {
+		return lanes[priority].cancelled.get();
+	}
+
+	public long getAverageWaitMillis(int priority) {
+		Lane lane = lanes[priority];
+		int completed = lane.completed.get();
+		return completed > 0 ? lane.totalWaitMillis.get() / completed : 0;
+	}
+
+	public long getMaxWaitMillis(int priority) {
+		return lanes[priority].maxWaitMillis.get();
+	}
+
+	public long getAverageRunMillis(int priority) {
+		Lane lane = lanes[priority];
+		int completed = lane.completed.get();
+		return completed > 0 ? lane.totalRunMillis.get() / completed : 0;
+	}
+
+	private void logSlowWait(int priority, long wait) {
+		Log.d(TAG, (priority == PRIORITY_INTERACTIVE
+				? "Interactive" : "Background") +
+				" task waited " + wait + " ms, " +
+				getQueueDepth(priority) + " queued, " +
+				getCompletedCount(priority) + " completed, " +
+				getCancelledCount(priority) + " cancelled, wait " +
+				getAverageWaitMillis(priority) + " ms average " +
+				getMaxWaitMillis(priority) + " ms max, run " +
+				getAverageRunMillis(priority) + " ms average");
+	}
+
+	// Hands the slot of a finished background task to the next one.
+	private void finishBackground() {
+		Task next;
+		synchronized (waitingBackground) {
+			next = waitingBackground.poll();
+			if (next == null) {
+				--runningBackground;
+				return;
+			}
+		}
+		executor.execute(next);
+	}
+
+	private static void updateMax(AtomicLong max, long value) {
+		long current;
+		while (value > (current = max.get())) {
+			if (max.compareAndSet(current, value)) {
+				break;
+			}
+		}
+	}
+}
@@ -11,6 +11,7 @@ import android.os.Build;
 import android.os.UserHandle;
 
 import com.pt.ifp.neolauncher.content.AppMenu;
+import com.pt.ifp.neolauncher.graphics.BitmapInterner;
 import com.pt.ifp.neolauncher.graphics.IconPack;
 import com.pt.ifp.neolauncher.preference.Preferences;
 import com.pt.ifp.neolauncher.receiver.ConfigurationChangedReceiver;
@@ -18,8 +19,11 @@ import com.pt.ifp.neolauncher.receiver.ManagedProfileEventReceiver;
 import com.pt.ifp.neolauncher.receiver.PackageEventReceiver;
 
 public class NeoLauncherApp extends Application {
+	// Before appMenu because AppMenu uses it.
+	public static final BitmapInterner bitmaps = new BitmapInterner();
 	public static final AppMenu appMenu = new AppMenu();
 	public static final IconPack iconPack = new IconPack();
+	public static final LauncherExecutor executor = new LauncherExecutor();
 
 	private static final ConfigurationChangedReceiver configurationChangedReceiver =
 			new ConfigurationChangedReceiver();
@@ -85,6 +89,11 @@ public class NeoLauncherApp extends Application {
 		IntentFilter filter = new IntentFilter();
 		filter.addAction(Intent.ACTION_MANAGED_PROFILE_ADDED);
 		filter.addAction(Intent.ACTION_MANAGED_PROFILE_REMOVED);
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+			// Locked profiles are indexed when they become available.
+			filter.addAction(Intent.ACTION_MANAGED_PROFILE_AVAILABLE);
+			filter.addAction(Intent.ACTION_MANAGED_PROFILE_UNLOCKED);
+		}
 		registerReceiver(managedProfileEventReceiver, filter);
 	}
 
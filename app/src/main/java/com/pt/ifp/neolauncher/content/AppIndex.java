@@ -0,0 +1,203 @@
+package com.pt.ifp.neolauncher.content;
+
+import android.os.UserHandle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.pt.ifp.neolauncher.graphics.PieMenu;
+
+/**
+ * Immutable snapshot of all indexed apps.
+ *
+ * A snapshot is never modified after it has been created. Changes
+ * create a new snapshot that replaces the old one atomically, so
+ * readers on any thread always see a consistent set of apps.
+ *
+ * Every app gets a dense id from 0 to size() - 1 that is only valid
+ * for this snapshot. Sets of apps can be kept as BitSets of ids.
+ */
+public final class AppIndex {
+	public static final AppIndex EMPTY = new AppIndex(
+			new HashMap<>());
+
+	// Parallel arrays, indexed by id.
+	private final LauncherItemKey[] keys;
+	private final AppMenu.AppIcon[] apps;
+	private final String[] labels;
+
+	private final List<AppMenu.AppIcon> list;
+	private final HashMap<LauncherItemKey, Integer> ids;
+	// AppIcon doesn't override equals() so icons are matched by
+	// identity, just like List.contains() does.
+	private final IdentityHashMap<AppMenu.AppIcon, Integer> iconIds;
+	// All keys of a package, for all profiles.
+	private final HashMap<String, List<LauncherItemKey>> packages =
+			new HashMap<>();
+
+	// Built on first use, see getSearchIndex().
+	private volatile AppSearchIndex searchIndex;
+
+	AppIndex(Map<LauncherItemKey, AppMenu.AppIcon> allApps) {
+		int size = allApps.size();
+		keys = new LauncherItemKey[size];
+		apps = new AppMenu.AppIcon[size];
+		labels = new String[size];
+		ids = new HashMap<>(size * 2);
+		iconIds = new IdentityHashMap<>(size);
+		int id = 0;
+		for (Map.Entry<LauncherItemKey, AppMenu.AppIcon> entry :
+				allApps.entrySet()) {
+			LauncherItemKey key = entry.getKey();
+			AppMenu.AppIcon appIcon = entry.getValue();
+			keys[id] = key;
+			apps[id] = appIcon;
+			labels[id] = appIcon.label;
+			ids.put(key, id);
+			iconIds.put(appIcon, id);
+			String packageName = key.componentName.getPackageName();
+			List<LauncherItemKey> packageKeys = packages.get(packageName);
+			if (packageKeys == null) {
+				packageKeys = new ArrayList<>(1);
+				packages.put(packageName, packageKeys);
+			}
+			packageKeys.add(key);
+			++id;
+		}
+		list = Collections.unmodifiableList(Arrays.asList(apps));
+	}
+
+	public boolean isEmpty() {
+		return apps.length == 0;
+	}
+
+	public int size() {
+		return apps.length;
+	}
+
+	public AppMenu.AppIcon get(LauncherItemKey key) {
+		Integer id = ids.get(key);
+		return id != null ? apps[id] : null;
+	}
+
+	public List<AppMenu.AppIcon> getApps() {
+		return list;
+	}
+
+	public AppMenu.AppIcon getApp(int id) {
+		return apps[id];
+	}
+
+	public LauncherItemKey getKey(int id) {
+		return keys[id];
+	}
+
+	public String getLabel(int id) {
+		return labels[id];
+	}
+
+	/**
+	 * Returns the id of the given key or -1 if it's not indexed.
+	 */
+	public int getId(LauncherItemKey key) {
+		Integer id = ids.get(key);
+		return id != null ? id : -1;
+	}
+
+	/**
+	 * Returns the id of the given icon instance or -1 if it's not
+	 * part of this snapshot.
+	 */
+	public int getId(PieMenu.Icon icon) {
+		Integer id = iconIds.get(icon);
+		return id != null ? id : -1;
+	}
+
+	/**
+	 * Returns the ids of all given icons that are part of this
+	 * snapshot.
+	 */
+	public BitSet getMembers(Collection<? extends PieMenu.Icon> icons) {
+		BitSet members = new BitSet(apps.length);
+		for (PieMenu.Icon icon : icons) {
+			int id = getId(icon);
+			if (id > -1) {
+				members.set(id);
+			}
+		}
+		return members;
+	}
+
+	/**
+	 * Returns the search index of this snapshot for the given locale.
+	 * It's built on first use and kept until the locale changes.
+	 */
+	public AppSearchIndex getSearchIndex(Locale locale) {
+		AppSearchIndex current = searchIndex;
+		if (current == null || !current.locale.equals(locale)) {
+			// Building it twice in a race is harmless.
+			current = new AppSearchIndex(this, locale);
+			searchIndex = current;
+		}
+		return current;
+	}
+
+	/**
+	 * Copies all apps of this snapshot into the given map.
+	 */
+	public void copyTo(Map<LauncherItemKey, AppMenu.AppIcon> allApps) {
+		for (int id = 0; id < apps.length; ++id) {
+			allApps.put(keys[id], apps[id]);
+		}
+	}
+
+	/**
+	 * Returns the keys of all apps of the given package in the given
+	 * profile, or in all profiles if userHandle is null.
+	 */
+	public List<LauncherItemKey> getKeys(String packageName,
+			UserHandle userHandle) {
+		List<LauncherItemKey> packageKeys = packages.get(packageName);
+		if (packageKeys == null) {
+			return Collections.emptyList();
+		}
+		if (userHandle == null) {
+			return Collections.unmodifiableList(packageKeys);
+		}
+		ArrayList<LauncherItemKey> profileKeys = new ArrayList<>(
+				packageKeys.size());
+		for (LauncherItemKey key : packageKeys) {
+			if (userHandle.equals(get(key).userHandle)) {
+				profileKeys.add(key);
+			}
+		}
+		return profileKeys;
+	}
+
+	/**
+	 * Returns a new snapshot without the apps of the given package,
+	 * or this snapshot if it doesn't contain the package.
+	 */
+	public AppIndex withoutPackage(String packageName,
+			UserHandle userHandle) {
+		List<LauncherItemKey> packageKeys = getKeys(packageName, userHandle);
+		if (packageKeys.isEmpty()) {
+			return this;
+		}
+		HashMap<LauncherItemKey, AppMenu.AppIcon> copy = new HashMap<>(
+				apps.length * 2);
+		copyTo(copy);
+		for (LauncherItemKey key : packageKeys) {
+			copy.remove(key);
+		}
+		return new AppIndex(copy);
+	}
+}
@@ -8,42 +8,57 @@ import android.content.Intent;
 import android.content.pm.ActivityInfo;
 import android.content.pm.LauncherActivityInfo;
 import android.content.pm.LauncherApps;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
+import android.graphics.Bitmap;
 import android.graphics.Rect;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Process;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.provider.CalendarContract;
 import android.provider.MediaStore;
 import android.provider.Settings;
+import android.util.Log;
 import android.widget.Toast;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 
+import com.pt.ifp.neolauncher.BuildConfig;
 import com.pt.ifp.neolauncher.R;
 import com.pt.ifp.neolauncher.activity.HomeActivity;
 import com.pt.ifp.neolauncher.app.NeoLauncherApp;
+import com.pt.ifp.neolauncher.graphics.BitmapPool;
 import com.pt.ifp.neolauncher.graphics.CanvasPieMenu;
 import com.pt.ifp.neolauncher.graphics.Converter;
+import com.pt.ifp.neolauncher.graphics.IconAtlas;
+import com.pt.ifp.neolauncher.graphics.IconBitmapCache;
+import com.pt.ifp.neolauncher.graphics.IconPack;
+import com.pt.ifp.neolauncher.graphics.IconSizes;
 import com.pt.ifp.neolauncher.io.HiddenApps;
+import com.pt.ifp.neolauncher.io.IconCache;
 import com.pt.ifp.neolauncher.io.Menu;
 import com.pt.ifp.neolauncher.preference.Preferences;
+import com.pt.ifp.neolauncher.receiver.ConfigurationChangedReceiver;
 
 public class AppMenu extends CanvasPieMenu {
 	public static class AppIcon extends CanvasPieMenu.CanvasIcon {
@@ -55,45 +70,134 @@ public class AppMenu extends CanvasPieMenu {
 		// after indexing (e.g. when switching icons).
 		public ComponentName componentName;
 
-		public AppIcon(ComponentName componentName, String label, Drawable icon,
-                       UserHandle userHandle) {
-			super(Converter.getBitmapFromDrawable(icon));
+		public AppIcon(ComponentName componentName, String label,
+				Bitmap bitmap, UserHandle userHandle) {
+			// Apps with the same icon share one bitmap.
+			super(NeoLauncherApp.bitmaps.intern(bitmap));
 			this.componentName = componentName;
 			this.label = label;
 			this.userHandle = userHandle;
 		}
+
+		// Returns this icon if the label is the same or a copy that
+		// shares all bitmaps otherwise.
+		private AppIcon withLabel(String label) {
+			if (label.equals(this.label)) {
+				return this;
+			}
+			AppIcon appIcon = new AppIcon(componentName, label, bitmap,
+					userHandle);
+			appIcon.largeBitmap = largeBitmap;
+			appIcon.atlasRegion = atlasRegion;
+			appIcon.evicted = evicted;
+			return appIcon;
+		}
+	}
+
+	// The matches of the last query so a longer query only needs
+	// to check them.
+	private static final class SearchResult {
+		private final AppSearchIndex searchIndex;
+		private final int strategy;
+		private final int item;
+		private final String query;
+		private final BitSet ids;
+		private final BitSet hammingIds;
+
+		private SearchResult(AppSearchIndex searchIndex, int strategy,
+				int item, String query, BitSet ids, BitSet hammingIds) {
+			this.searchIndex = searchIndex;
+			this.strategy = strategy;
+			this.item = item;
+			this.query = query;
+			this.ids = ids;
+			this.hammingIds = hammingIds;
+		}
 	}
 
 	public interface UpdateListener {
 		void onUpdate();
 	}
 
+	public interface IconListener {
+		void onIconsLoaded(List<AppIcon> appIcons);
+	}
+
+	// An app whose icon still needs to be loaded after its label
+	// has been published.
+	private static class PendingIcon {
+		private final AppIcon appIcon;
+		private final LauncherActivityInfo info;
+		private final LauncherItemKey key;
+		private final PackageInfo packageInfo;
+		private final String iconPackKey;
+
+		private Bitmap bitmap;
+
+		private PendingIcon(AppIcon appIcon, LauncherActivityInfo info,
+				LauncherItemKey key, PackageInfo packageInfo,
+				String iconPackKey) {
+			this.appIcon = appIcon;
+			this.info = info;
+			this.key = key;
+			this.packageInfo = packageInfo;
+			this.iconPackKey = iconPackKey;
+		}
+	}
+
 	public static final boolean HAS_LAUNCHER_APP =
 			Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
 
+	private static final String TAG = "AppMenu";
+
+	// Number of icons that are loaded before they're handed to the UI.
+	private static final int ICON_BATCH_SIZE = 24;
+
 	public final HiddenApps hiddenApps = new HiddenApps();
+	public final IconCache iconCache = new IconCache();
+	private final BitmapPool bitmapPool = new BitmapPool(
+			NeoLauncherApp.bitmaps);
+	public final IconBitmapCache bitmapCache = new IconBitmapCache(
+			bitmapPool, NeoLauncherApp.bitmaps);
 
+	private final IconAtlas iconAtlas = new IconAtlas();
 	private final Handler handler = new Handler(Looper.getMainLooper());
-	private final HashMap<LauncherItemKey, AppIcon> apps = new HashMap<>();
-	private final Comparator<AppIcon> appLabelComparator = (left, right) -> {
-		// Fast enough to do it for every comparison.
-		// Otherwise, if defaultLocale was a permanent field outside
-		// this scope, we'd need to listen for configuration changes
-		// because the locale may change.
-		Locale defaultLocale = Locale.getDefault();
-		// compareToIgnoreCase() does not take locale into account.
-		int result = left.label.toLowerCase(defaultLocale).compareTo(
-				right.label.toLowerCase(defaultLocale));
-		return result == 0 && left.userHandle != null && right.userHandle != null
-				? left.userHandle.hashCode() - right.userHandle.hashCode()
-				: result;
-	};
-
+	// Pie icons whose large bitmap is being loaded. Main thread only.
+	private final HashSet<AppIcon> loadingLargeIcons = new HashSet<>();
+	// Evicted icons whose bitmap is being reloaded. Main thread only.
+	private final HashSet<AppIcon> reloadingIcons = new HashSet<>();
+	// Number of atlas updates in flight. Main thread only.
+	private int atlasUpdates;
+	// True while the app list is filtered with a new snapshot.
+	private boolean appListPending;
+	private final IndexRequestQueue indexQueue = new IndexRequestQueue();
+	// Readers get a consistent snapshot of all apps from any thread.
+	// Writers replace the snapshot as a whole.
+	private final AtomicReference<AppIndex> index =
+			new AtomicReference<>(AppIndex.EMPTY);
 	private UpdateListener updateListener;
+	private IconListener iconListener;
+	private Bitmap placeholder;
+	private final Object searchLock = new Object();
+	private SearchResult lastSearchResult;
+	// Icons whose bitmaps are never evicted, see trimIconBitmaps().
+	private final ArrayList<AppIcon> pinnedIcons = new ArrayList<>();
+	private AppIcon[] pinnedKeep;
+	private boolean pinnedIconsChanged = true;
+	// Search latencies by search strictness.
+	private final int[] searchCounts =
+			new int[Preferences.SEARCH_STRICTNESS_FUZZY + 1];
+	private final long[] totalSearchNanos =
+			new long[Preferences.SEARCH_STRICTNESS_FUZZY + 1];
+	private final long[] maxSearchNanos =
+			new long[Preferences.SEARCH_STRICTNESS_FUZZY + 1];
+	private long lastSearchNanos;
 	private LauncherApps launcherApps;
 	private UserManager userManager;
 	private String drawerPackageName;
-	private boolean indexing = false;
+	private volatile boolean indexing = false;
+	// Size the icons of the last index pass were rasterized at or 0.
+	private volatile int indexedIconSize;
 
 	public static ComponentName getLaunchComponentForPackageName(
 			Context context, String packageName) {
@@ -157,158 +261,884 @@ public class AppMenu extends CanvasPieMenu {
 		updateListener = listener;
 	}
 
+	public void setIconListener(IconListener listener) {
+		iconListener = listener;
+	}
+
 	public void propagateUpdate() {
+		// The pie menu may have changed.
+		pinnedIconsChanged = true;
 		if (updateListener != null) {
 			updateListener.onUpdate();
 		}
 	}
 
+	/**
+	 * Returns the current snapshot of all indexed apps.
+	 * Safe to call from any thread.
+	 */
+	public AppIndex getIndex() {
+		return index.get();
+	}
+
 	public void store(Context context) {
+		pinnedIconsChanged = true;
 		Menu.store(context, icons);
 		hiddenApps.store(context);
+		// Icons may have been added to the pie menu.
+		loadLargeIcons(context);
 	}
 
-	public List<AppIcon> filterAppsBy(Context context, String query) {
-		if (indexing) {
+	/**
+	 * Returns the apps matching the given query or null if there are
+	 * no apps yet. May be called from any thread.
+	 *
+	 * @param pieIcons copy of the pie menu taken on the main thread
+	 */
+	public List<AppIcon> filterAppsBy(Context context, String query,
+			List<Icon> pieIcons) {
+		// Superseded searches may still be running.
+		synchronized (searchLock) {
+			return search(context, query, pieIcons);
+		}
+	}
+
+	private List<AppIcon> search(Context context, String query,
+			List<Icon> pieIcons) {
+		long start = SystemClock.elapsedRealtimeNanos();
+		AppIndex appIndex = index.get();
+		if (appIndex.isEmpty() && indexing) {
 			return null;
 		}
 		Locale defaultLocale = Locale.getDefault();
 		query = query == null
 				? ""
 				: query.trim().toLowerCase(defaultLocale);
+		AppSearchIndex searchIndex = appIndex.getSearchIndex(defaultLocale);
 
 		Preferences prefs = NeoLauncherApp.getPrefs(context);
 		int strategy = prefs.getSearchStrictness();
 		ArrayList<AppIcon> list = new ArrayList<>();
-		ArrayList<AppIcon> hamming = new ArrayList<>();
+		SearchResult result = null;
 		if (query.isEmpty()) {
-			list.addAll(apps.values());
+			BitSet ids = new BitSet(appIndex.size());
+			ids.set(0, appIndex.size());
 			if (prefs.excludePie()) {
-				//noinspection SuspiciousMethodCalls
-				list.removeAll(new HashSet<>(icons));
+				ids.andNot(appIndex.getMembers(pieIcons));
 			}
+			searchIndex.addInLabelOrder(ids, list);
 		} else {
 			int item = prefs.getSearchParameter();
-			for (Map.Entry<LauncherItemKey, AppIcon> entry : apps.entrySet()) {
-				AppIcon appIcon = entry.getValue();
-				String subject = getSubject(item, appIcon, defaultLocale);
-				boolean add = false;
-				switch (strategy) {
-					// HAMMING includes CONTAINS for historical reasons.
-					case Preferences.SEARCH_STRICTNESS_HAMMING:
-					case Preferences.SEARCH_STRICTNESS_CONTAINS:
-						add = subject.contains(query);
-						break;
-					case Preferences.SEARCH_STRICTNESS_STARTS_WITH:
-						add = subject.startsWith(query);
-						break;
+			// Matches can only get fewer while the query grows, so
+			// only the previous matches need to be checked then.
+			SearchResult last = lastSearchResult;
+			boolean narrow = last != null &&
+					last.searchIndex == searchIndex &&
+					last.strategy == strategy &&
+					last.item == item &&
+					query.startsWith(last.query);
+			if (strategy == Preferences.SEARCH_STRICTNESS_FUZZY) {
+				// Longer queries may have more errors.
+				narrow = narrow && FuzzyMatcher.getMaxErrors(query) ==
+						FuzzyMatcher.getMaxErrors(last.query);
+				int[] ranked = searchIndex.fuzzy(item,
+						new FuzzyMatcher(query), narrow ? last.ids : null);
+				searchIndex.addAll(ranked, list);
+				BitSet ids = new BitSet(appIndex.size());
+				for (int id : ranked) {
+					ids.set(id);
 				}
-				if (add) {
-					list.add(appIcon);
-				} else if (strategy == Preferences.SEARCH_STRICTNESS_HAMMING &&
-						hammingDistance(subject, query) < 2) {
-					hamming.add(appIcon);
+				result = new SearchResult(searchIndex, strategy, item, query,
+						ids, null);
+				return finishSearch(result, strategy, start, list);
+			}
+			BitSet ids =
+					strategy == Preferences.SEARCH_STRICTNESS_STARTS_WITH
+							? searchIndex.startsWith(item, query,
+									narrow ? last.ids : null)
+							// HAMMING includes CONTAINS for historical
+							// reasons.
+							: searchIndex.contains(item, query,
+									narrow ? last.ids : null);
+			searchIndex.addInLabelOrder(ids, list);
+			BitSet hammingIds = null;
+			if (strategy == Preferences.SEARCH_STRICTNESS_HAMMING) {
+				BitSet candidates = null;
+				if (narrow) {
+					candidates = (BitSet) last.ids.clone();
+					candidates.or(last.hammingIds);
 				}
+				// Only append hamming matches as they're less likely
+				// as good as exact matches.
+				hammingIds = searchIndex.hamming(item, query, ids,
+						candidates);
+				searchIndex.addInLabelOrder(hammingIds, list);
 			}
+			result = new SearchResult(searchIndex, strategy, item, query,
+					ids, hammingIds);
 		}
+		return finishSearch(result, strategy, start, list);
+	}
 
-		Collections.sort(list, appLabelComparator);
-		if (!hamming.isEmpty()) {
-			// Only append hamming matches as they're less likely
-			// as good as exact matches.
-			Collections.sort(hamming, appLabelComparator);
-			list.addAll(hamming);
+	private List<AppIcon> finishSearch(SearchResult result, int strategy,
+			long start, List<AppIcon> list) {
+		lastSearchResult = result;
+		recordSearchLatency(strategy,
+				SystemClock.elapsedRealtimeNanos() - start);
+		// For QA, to compare the latencies of the search modes on a
+		// device with a debug build. Leaves out the query since it's
+		// private.
+		if (BuildConfig.DEBUG) {
+			Log.d(TAG, "Search took " + getLastSearchMicros() +
+					" us, strictness " + strategy +
+					": average " + getAverageSearchMicros(strategy) +
+					" us, max " + getMaxSearchMicros(strategy) + " us");
 		}
 		return list;
 	}
 
+	/**
+	 * Returns the average time filterAppsBy() took in microseconds
+	 * with the given search strictness, to compare them.
+	 *
+	 * @param strategy one of Preferences.SEARCH_STRICTNESS_*
+	 */
+	public long getAverageSearchMicros(int strategy) {
+		synchronized (searchLock) {
+			int count = searchCounts[strategy];
+			return count > 0
+					? totalSearchNanos[strategy] / count / 1000
+					: 0;
+		}
+	}
+
+	public long getMaxSearchMicros(int strategy) {
+		synchronized (searchLock) {
+			return maxSearchNanos[strategy] / 1000;
+		}
+	}
+
+	public long getLastSearchMicros() {
+		synchronized (searchLock) {
+			return lastSearchNanos / 1000;
+		}
+	}
+
+	private void recordSearchLatency(int strategy, long nanos) {
+		if (strategy >= 0 && strategy < searchCounts.length) {
+			++searchCounts[strategy];
+			totalSearchNanos[strategy] += nanos;
+			maxSearchNanos[strategy] = Math.max(maxSearchNanos[strategy],
+					nanos);
+		}
+		lastSearchNanos = nanos;
+	}
+
 	public void removePackage(Context context, String packageName,
 			UserHandle userHandle) {
-		removePackageFromApps(apps, packageName, userHandle);
+		if (indexing) {
+			// The running index pass doesn't know about this removal
+			// yet and would restore the package. Queue a pass for the
+			// package that will find it's gone.
+			indexAppsAsync(context, packageName, userHandle);
+		}
+		AppIndex newIndex = index.updateAndGet(appIndex ->
+				appIndex.withoutPackage(packageName, userHandle));
 		removePackageFromPieMenu(packageName, userHandle);
 		hiddenApps.removeAndStore(context, packageName);
+		if (!indexing) {
+			// Otherwise the pass does this when it's done.
+			bitmapCache.reset(newIndex.getApps(), getPlaceholder(context));
+			updateAtlas(context);
+		}
 		propagateUpdate();
 	}
 
 	public void updateIconsAsync(Context context) {
-		if (!indexAppsAsync(context)) {
-			handler.postDelayed(() -> updateIconsAsync(context), 1000L);
-		}
+		// Requests are queued while indexing so this is
+		// guaranteed to run.
+		indexAppsAsync(context);
 	}
 
 	public boolean isEmpty() {
-		return apps.isEmpty();
+		return index.get().isEmpty();
+	}
+
+	/**
+	 * Returns true if icons have been indexed at a different size
+	 * than IconSizes.getListSize() returns now.
+	 */
+	public boolean hasOutdatedIconSize(Context context) {
+		int size = indexedIconSize;
+		return size > 0 && size != IconSizes.getListSize(context);
 	}
 
 	public boolean isIndexing() {
-		return apps.isEmpty() && indexing;
+		return index.get().isEmpty() && indexing;
 	}
 
 	public boolean indexAppsAsync(Context context) {
 		return indexAppsAsync(context, null, null);
 	}
 
+	/**
+	 * Queues an index request. Requests that arrive while indexing is
+	 * running are merged and processed in one pass afterwards.
+	 *
+	 * @return true if indexing started right away, false if queued
+	 */
 	public boolean indexAppsAsync(Context context,
 			String packageNameRestriction,
 			UserHandle userHandleRestriction) {
+		indexQueue.add(packageNameRestriction, userHandleRestriction);
 		if (indexing) {
 			return false;
 		}
+		indexNextBatch(context);
+		return true;
+	}
+
+	/**
+	 * Resolves the labels of all indexed apps again, for example
+	 * after the locale has changed. Icons are kept as they are.
+	 */
+	public void relabelAppsAsync(Context context) {
+		indexQueue.addRelabel();
+		if (!indexing) {
+			indexNextBatch(context);
+		}
+	}
+
+	private void indexNextBatch(Context context) {
+		IndexRequestQueue.Batch batch = indexQueue.poll();
+		if (batch == null) {
+			return;
+		}
+		if (BuildConfig.DEBUG && batch.getCoalesced() > 0) {
+			Log.d(TAG, "Indexing " + batch.events + " events in one pass, " +
+					batch.getCoalesced() + " coalesced (" +
+					indexQueue.getCoalescedEvents() + " of " +
+					indexQueue.getTotalEvents() + " events in " +
+					indexQueue.getBatches() + " passes in total)");
+		}
 		indexing = true;
+		if (batch.relabel) {
+			NeoLauncherApp.executor.executeInBackground(() -> {
+				try {
+					relabelApps(context);
+				} finally {
+					handler.post(() -> {
+						indexing = false;
+						releaseRetiredBitmaps();
+						indexNextBatch(context);
+					});
+				}
+			});
+			return;
+		}
 		hiddenApps.restore(context);
 		HashSet<ComponentName> hideApps = new HashSet<>(
 				hiddenApps.componentNames);
+		boolean full = batch.isFull();
+		NeoLauncherApp.executor.executeInBackground(() -> {
+			try {
+				runIndexPass(context, batch, hideApps, full);
+			} finally {
+				// Keep processing requests even if this pass failed.
+				handler.post(() -> {
+					indexing = false;
+					releaseRetiredBitmaps();
+					indexNextBatch(context);
+				});
+			}
+		});
+	}
+
+	private void runIndexPass(Context context, IndexRequestQueue.Batch batch,
+			HashSet<ComponentName> hideApps, boolean full) {
+		AppIndex oldIndex = index.get();
 		Map<LauncherItemKey, AppIcon> newApps = new HashMap<>();
-		if (packageNameRestriction != null) {
-			// Copy apps since we're indexing just one app.
-			newApps.putAll(apps);
-			removePackageFromApps(newApps, packageNameRestriction,
-					userHandleRestriction);
-			// No need to call removePackageFromPieMenu() because the
-			// menu will be re-created by createMenu() after indexing.
-		}
-		Executors.newSingleThreadExecutor().execute(() -> {
-			indexApps(context,
-					packageNameRestriction,
-					userHandleRestriction,
-					hideApps,
-					newApps);
+		// Only patch the pie menu if there's one already and no
+		// profile is (re-)indexed as a whole.
+		boolean delta = !full && !oldIndex.isEmpty() &&
+				batch.isPackageBatch();
+		if (!full) {
+			// Copy apps since we're indexing just some apps.
+			oldIndex.copyTo(newApps);
+			for (IndexRequestQueue.Request request : batch.requests) {
+				removeRequestFromApps(newApps, oldIndex, request);
+			}
+		}
+		int iconSize = IconSizes.getListSize(context);
+		indexedIconSize = iconSize;
+		int primaryColor =
+				ConfigurationChangedReceiver.getPrimaryColor(context);
+		iconCache.restore(context, iconSize, primaryColor);
+		if (oldIndex.isEmpty() && full) {
+			publishCachedApps(context, hideApps);
+			oldIndex = index.get();
+		}
+		IndexRequestQueue.Batch indexBatch = batch;
+		List<UserHandle> deferredProfiles = full && HAS_LAUNCHER_APP
+				? getManagedProfiles(context)
+				: Collections.emptyList();
+		if (!deferredProfiles.isEmpty()) {
+			// Index the primary profile first and keep the apps of
+			// managed profiles until they get their own passes.
+			// Those may not come for a while if a profile is locked,
+			// so apps that are hidden now are dropped right away.
+			indexBatch = IndexRequestQueue.newProfileBatch(
+					Process.myUserHandle());
+			for (int id = 0, size = oldIndex.size(); id < size; ++id) {
+				AppIcon appIcon = oldIndex.getApp(id);
+				LauncherItemKey key = oldIndex.getKey(id);
+				if (deferredProfiles.contains(appIcon.userHandle) &&
+						!hideApps.contains(key.componentName)) {
+					newApps.put(key, appIcon);
+				}
+			}
+		}
+		// First phase: publish all apps with their labels so they
+		// can be found right away. Icons that weren't cached get a
+		// placeholder.
+		List<PendingIcon> pendingIcons = indexApps(context,
+				indexBatch,
+				hideApps,
+				newApps,
+				oldIndex,
+				iconCache,
+				iconSize,
+				getPlaceholder(context));
+		// All indexed apps come from the launcher activity list,
+		// so the icon pack can tell launchable packages without
+		// asking the package manager for each of them.
+		HashSet<String> launchable = new HashSet<>();
+		for (LauncherItemKey key : newApps.keySet()) {
+			launchable.add(key.componentName.getPackageName());
+		}
+		NeoLauncherApp.iconPack.setLaunchablePackages(launchable);
+		if (delta) {
+			// Only the pie slots of the changed packages need to
+			// be updated.
+			AppIndex newIndex = new AppIndex(newApps);
+			index.set(newIndex);
+			handler.post(() -> {
+				patchPieMenu(batch, newIndex);
+				bitmapCache.reset(newIndex.getApps(),
+						getPlaceholder(context));
+				propagateUpdate();
+				loadLargeIcons(context);
+			});
+		} else {
 			List<Icon> newIcons = createMenu(context, newApps,
 					NeoLauncherApp.getPrefs(context).openListWith() ==
 							Preferences.OPEN_LIST_WITH_ICON);
+			AppIndex newIndex = new AppIndex(newApps);
+			index.set(newIndex);
 			handler.post(() -> {
-				apps.clear();
-				apps.putAll(newApps);
 				icons.clear();
 				icons.addAll(newIcons);
-				indexing = false;
+				bitmapCache.reset(newIndex.getApps(),
+						getPlaceholder(context));
 				propagateUpdate();
+				loadLargeIcons(context);
 			});
+		}
+		// Second phase: stream in the missing icons.
+		loadPendingIcons(pendingIcons, iconSize, primaryColor);
+		updateAtlas(context);
+		if (full) {
+			iconCache.retain(newApps.keySet());
+		}
+		iconCache.store(context);
+		// Build the search index here rather than on the first
+		// keystroke.
+		index.get().getSearchIndex(Locale.getDefault());
+		if (NeoLauncherApp.bitmaps.getSharedCount() > 0) {
+			Log.d(TAG, "Sharing " +
+					NeoLauncherApp.bitmaps.getSharedCount() +
+					" icon bitmaps, " +
+					NeoLauncherApp.bitmaps.getBytesSaved() +
+					" bytes saved");
+		}
+		// Locked profiles are indexed once they're unlocked,
+		// see ManagedProfileEventReceiver.
+		UserManager um = HAS_LAUNCHER_APP
+				? getUserManager(context)
+				: null;
+		for (UserHandle profile : deferredProfiles) {
+			if (isProfileAvailable(um, profile)) {
+				indexQueue.add(null, profile);
+			}
+		}
+	}
+
+	private void relabelApps(Context context) {
+		AppIndex oldIndex = index.get();
+		if (oldIndex.isEmpty()) {
+			return;
+		}
+		Map<LauncherItemKey, String> labels = resolveLabels(context);
+		Map<LauncherItemKey, AppIcon> newApps = new HashMap<>();
+		for (int id = 0, size = oldIndex.size(); id < size; ++id) {
+			LauncherItemKey key = oldIndex.getKey(id);
+			AppIcon appIcon = oldIndex.getApp(id);
+			String label = labels.get(key);
+			if (label != null) {
+				// Share the bitmap, only the label may be new.
+				appIcon = appIcon.withLabel(label);
+				// Also when it didn't change because the cache has
+				// forgotten all labels of the old locale.
+				iconCache.setLabel(key, label);
+			}
+			newApps.put(key, appIcon);
+		}
+		AppIndex newIndex = new AppIndex(newApps);
+		index.set(newIndex);
+		handler.post(() -> {
+			ListIterator<Icon> it = icons.listIterator();
+			while (it.hasNext()) {
+				AppIcon appIcon = (AppIcon) it.next();
+				AppIcon newIcon = newIndex.get(new LauncherItemKey(
+						appIcon.componentName, appIcon.userHandle));
+				if (newIcon != null) {
+					it.set(newIcon);
+				}
+			}
+			bitmapCache.reset(newIndex.getApps(),
+					getPlaceholder(context));
+			propagateUpdate();
 		});
-		return true;
+		updateAtlas(context);
+		iconCache.store(context);
+	}
+
+	private static Map<LauncherItemKey, String> resolveLabels(
+			Context context) {
+		HashMap<LauncherItemKey, String> labels = new HashMap<>();
+		if (HAS_LAUNCHER_APP) {
+			resolveProfilesLabels(
+					(LauncherApps) context.getSystemService(
+							Context.LAUNCHER_APPS_SERVICE),
+					(UserManager) context.getSystemService(
+							Context.USER_SERVICE),
+					labels);
+		} else {
+			PackageManager pm = context.getPackageManager();
+			Intent intent = new Intent(Intent.ACTION_MAIN, null);
+			intent.addCategory(Intent.CATEGORY_LAUNCHER);
+			for (ResolveInfo info : pm.queryIntentActivities(intent, 0)) {
+				labels.put(new LauncherItemKey(
+								getComponentName(info.activityInfo), null),
+						info.loadLabel(pm).toString());
+			}
+		}
+		return labels;
 	}
 
-	private static void indexApps(
+	@SuppressLint("UseRequiresApi")
+	@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+	private static void resolveProfilesLabels(LauncherApps la,
+			UserManager um, Map<LauncherItemKey, String> labels) {
+		for (UserHandle profile : um.getUserProfiles()) {
+			for (LauncherActivityInfo info :
+					la.getActivityList(null, profile)) {
+				labels.put(new LauncherItemKey(info.getComponentName(),
+						profile), info.getLabel().toString());
+			}
+		}
+	}
+
+	// Returns all profiles but the one this app is running in.
+	@SuppressLint("UseRequiresApi")
+	@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+	private List<UserHandle> getManagedProfiles(Context context) {
+		ArrayList<UserHandle> profiles = new ArrayList<>(
+				getUserManager(context).getUserProfiles());
+		profiles.remove(Process.myUserHandle());
+		return profiles;
+	}
+
+	@SuppressLint("UseRequiresApi")
+	@TargetApi(Build.VERSION_CODES.N)
+	private static boolean isProfileAvailable(UserManager um,
+			UserHandle profile) {
+		return Build.VERSION.SDK_INT < Build.VERSION_CODES.N ||
+				(um.isUserUnlocked(profile) &&
+						!um.isQuietModeEnabled(profile));
+	}
+
+	private void loadPendingIcons(List<PendingIcon> pendingIcons,
+			int iconSize, int primaryColor) {
+		for (int i = 0, size = pendingIcons.size(); i < size;
+				i += ICON_BATCH_SIZE) {
+			List<PendingIcon> batch = pendingIcons.subList(i,
+					Math.min(size, i + ICON_BATCH_SIZE));
+			for (PendingIcon pendingIcon : batch) {
+				Drawable icon = NeoLauncherApp.iconPack.getIcon(
+						pendingIcon.key.componentName);
+				if (icon == null &&
+						(icon = getBadgedIcon(pendingIcon.info)) == null) {
+					// Keep the placeholder.
+					continue;
+				}
+				pendingIcon.bitmap = rasterize(icon, iconSize);
+				iconCache.put(pendingIcon.key,
+						pendingIcon.packageInfo,
+						pendingIcon.iconPackKey,
+						pendingIcon.appIcon.label,
+						pendingIcon.bitmap,
+						primaryColor);
+			}
+			handler.post(() -> {
+				ArrayList<AppIcon> loaded = new ArrayList<>(batch.size());
+				for (PendingIcon pendingIcon : batch) {
+					if (pendingIcon.bitmap != null) {
+						pendingIcon.appIcon.bitmap = pendingIcon.bitmap;
+						bitmapCache.add(pendingIcon.appIcon);
+						loaded.add(pendingIcon.appIcon);
+					}
+				}
+				if (iconListener != null && !loaded.isEmpty()) {
+					iconListener.onIconsLoaded(loaded);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Must be called for every list icon that is drawn. Reloads
+	 * the bitmap of the icon if it has been evicted.
+	 */
+	public void onIconDrawn(Context context, AppIcon appIcon) {
+		if (!bitmapCache.touch(appIcon)) {
+			reloadIcon(context, appIcon);
+		}
+	}
+
+	/**
+	 * Evicts the bitmaps of list icons that haven't been drawn for
+	 * a while if the memory budget is exceeded. The bitmaps of the
+	 * pie menu and of the given icons are always kept.
+	 */
+	public void trimIconBitmaps(Context context, AppIcon[] keep) {
+		// Only collect the pinned icons again when the pie menu or
+		// the given icons have changed.
+		if (pinnedIconsChanged || !Arrays.equals(keep, pinnedKeep)) {
+			pinnedIconsChanged = false;
+			pinnedKeep = keep.clone();
+			pinnedIcons.clear();
+			for (Icon icon : icons) {
+				AppIcon appIcon = (AppIcon) icon;
+				if (appIcon.evicted) {
+					reloadIcon(context, appIcon);
+				}
+				pinnedIcons.add(appIcon);
+			}
+			Collections.addAll(pinnedIcons, keep);
+		}
+		int evictions = bitmapCache.getEvictions();
+		bitmapCache.trim(pinnedIcons);
+		if (bitmapCache.getEvictions() != evictions) {
+			releaseRetiredBitmaps();
+		}
+		// This runs while drawing, so only debug builds log.
+		if (BuildConfig.DEBUG && bitmapCache.getEvictions() != evictions) {
+			Log.d(TAG, "Icon bitmaps: " + bitmapCache.getBytes() +
+					" of " + bitmapCache.getMaxBytes() + " bytes, " +
+					bitmapCache.getHits() + " hits, " +
+					bitmapCache.getMisses() + " misses, " +
+					bitmapCache.getEvictions() + " evictions");
+		}
+	}
+
+	private void reloadIcon(Context context, AppIcon appIcon) {
+		if (!reloadingIcons.add(appIcon)) {
+			return;
+		}
+		int iconSize = IconSizes.getListSize(context);
+		NeoLauncherApp.executor.executeInteractive(() -> {
+			Bitmap bitmap = iconCache.getBitmap(new LauncherItemKey(
+					appIcon.componentName, appIcon.userHandle));
+			if (bitmap == null) {
+				Drawable icon = loadIcon(context, appIcon);
+				if (icon != null) {
+					bitmap = rasterize(icon, iconSize);
+				}
+			} else {
+				bitmap = NeoLauncherApp.bitmaps.intern(bitmap);
+			}
+			Bitmap reloaded = bitmap;
+			handler.post(() -> {
+				reloadingIcons.remove(appIcon);
+				if (reloaded != null) {
+					bitmapCache.reload(appIcon, reloaded);
+				}
+				releaseRetiredBitmaps();
+				if (reloaded == null) {
+					return;
+				}
+				if (iconListener != null) {
+					iconListener.onIconsLoaded(
+							Collections.singletonList(appIcon));
+				}
+			});
+		});
+	}
+
+	/**
+	 * Must be called when the app list is filtered again and when
+	 * the result has been assigned, so bitmaps it may still show
+	 * aren't reused in the meantime.
+	 */
+	public void setAppListPending(boolean pending) {
+		appListPending = pending;
+		if (!pending) {
+			releaseRetiredBitmaps();
+		}
+	}
+
+	// Puts the bitmaps no icon uses anymore into the pool once
+	// nothing that may still refer to them is in flight.
+	private void releaseRetiredBitmaps() {
+		if (indexing || appListPending || atlasUpdates > 0 ||
+				!reloadingIcons.isEmpty()) {
+			return;
+		}
+		ArrayList<AppIcon> keep = new ArrayList<>(icons.size());
+		for (Icon icon : icons) {
+			keep.add((AppIcon) icon);
+		}
+		if (pinnedKeep != null) {
+			Collections.addAll(keep, pinnedKeep);
+		}
+		bitmapCache.releaseRetired(keep);
+	}
+
+	// Returns a shared bitmap of the given drawable. Bitmaps that
+	// turn out to be duplicates go back into the pool right away.
+	private Bitmap rasterize(Drawable icon, int size) {
+		Bitmap bitmap = Converter.getBitmapFromDrawable(icon, size,
+				bitmapPool);
+		Bitmap interned = NeoLauncherApp.bitmaps.intern(bitmap);
+		if (interned != bitmap && !(icon instanceof BitmapDrawable &&
+				((BitmapDrawable) icon).getBitmap() == bitmap)) {
+			bitmapPool.release(bitmap);
+		}
+		return interned;
+	}
+
+	// Pie icons are magnified so they get a larger bitmap than the
+	// one that is used for the app list.
+	private void loadLargeIcons(Context context) {
+		int largeSize = IconSizes.getLargeSize(context);
+		if (largeSize <= IconSizes.getListSize(context)) {
+			return;
+		}
+		ArrayList<AppIcon> missing = new ArrayList<>();
+		for (Icon icon : icons) {
+			AppIcon appIcon = (AppIcon) icon;
+			if (appIcon.largeBitmap == null &&
+					loadingLargeIcons.add(appIcon)) {
+				missing.add(appIcon);
+			}
+		}
+		if (missing.isEmpty()) {
+			return;
+		}
+		NeoLauncherApp.executor.executeInBackground(() -> {
+			ArrayList<Bitmap> bitmaps = new ArrayList<>(missing.size());
+			for (AppIcon appIcon : missing) {
+				Drawable icon = loadIcon(context, appIcon);
+				bitmaps.add(icon != null
+						? rasterize(icon, largeSize)
+						: null);
+			}
+			handler.post(() -> {
+				ArrayList<AppIcon> loaded = new ArrayList<>();
+				for (int i = 0, size = missing.size(); i < size; ++i) {
+					AppIcon appIcon = missing.get(i);
+					Bitmap bitmap = bitmaps.get(i);
+					loadingLargeIcons.remove(appIcon);
+					// Only keep it if it's really larger.
+					if (bitmap != null &&
+							bitmap.getWidth() > appIcon.bitmap.getWidth()) {
+						appIcon.largeBitmap = bitmap;
+						loaded.add(appIcon);
+					}
+				}
+				if (iconListener != null && !loaded.isEmpty()) {
+					iconListener.onIconsLoaded(loaded);
+				}
+			});
+		});
+	}
+
+	// Packs the bitmaps of all indexed apps into the icon atlas.
+	private void updateAtlas(Context context) {
+		// Posted so it runs after all loaded icons have been assigned.
+		handler.post(() -> {
+			HashMap<LauncherItemKey, AppIcon> apps = new HashMap<>();
+			index.get().copyTo(apps);
+			// The update reads the bitmaps of the icons.
+			++atlasUpdates;
+			NeoLauncherApp.executor.executeInBackground(() -> {
+				Map<CanvasPieMenu.CanvasIcon, IconAtlas.Region> regions =
+						null;
+				try {
+					regions = iconAtlas.update(apps,
+							IconSizes.getListSize(context),
+							getPlaceholder(context));
+				} finally {
+					Map<CanvasPieMenu.CanvasIcon, IconAtlas.Region> result =
+							regions;
+					long atlasBytes = iconAtlas.getBytes();
+					handler.post(() -> {
+						--atlasUpdates;
+						if (result != null) {
+							for (Map.Entry<CanvasPieMenu.CanvasIcon,
+									IconAtlas.Region> entry :
+									result.entrySet()) {
+								entry.getKey().atlasRegion = entry.getValue();
+							}
+							bitmapCache.setReservedBytes(atlasBytes);
+						}
+						releaseRetiredBitmaps();
+					});
+				}
+			});
+		});
+	}
+
+	private Drawable loadIcon(Context context, AppIcon appIcon) {
+		if (isDrawerIcon(appIcon)) {
+			return getDrawerIcon(context, appIcon.componentName);
+		}
+		Drawable icon = NeoLauncherApp.iconPack.getIcon(
+				appIcon.componentName);
+		if (icon != null) {
+			return icon;
+		}
+		if (HAS_LAUNCHER_APP) {
+			LauncherActivityInfo info = resolveActivity(
+					getLauncherApps(context), appIcon);
+			return info != null ? getBadgedIcon(info) : null;
+		}
+		try {
+			return context.getPackageManager().getActivityIcon(
+					appIcon.componentName);
+		} catch (PackageManager.NameNotFoundException e) {
+			return null;
+		}
+	}
+
+	@SuppressLint("UseRequiresApi")
+	@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+	private static LauncherActivityInfo resolveActivity(LauncherApps la,
+			AppIcon appIcon) {
+		try {
+			return la.resolveActivity(new Intent(Intent.ACTION_MAIN)
+							.addCategory(Intent.CATEGORY_LAUNCHER)
+							.setComponent(appIcon.componentName),
+					appIcon.userHandle != null
+							? appIcon.userHandle
+							: Process.myUserHandle());
+		} catch (Exception e) {
+			// The profile may have been removed in the meantime.
+			return null;
+		}
+	}
+
+	private synchronized Bitmap getPlaceholder(Context context) {
+		if (placeholder == null) {
+			placeholder = Converter.getBitmapFromDrawable(
+					Converter.getDrawable(context.getResources(),
+							R.drawable.ic_placeholder),
+					IconSizes.getListSize(context));
+			NeoLauncherApp.bitmaps.exclude(placeholder);
+		}
+		return placeholder;
+	}
+
+	public void clearIconCache(Context context) {
+		iconCache.clear(context,
+				ConfigurationChangedReceiver.getPrimaryColor(context));
+	}
+
+	// Show the apps from the last session while indexing is running.
+	private void publishCachedApps(Context context,
+			Set<ComponentName> hideApps) {
+		Map<LauncherItemKey, AppIcon> cachedApps = new HashMap<>();
+		for (Map.Entry<LauncherItemKey, IconCache.Entry> entry :
+				iconCache.getEntries().entrySet()) {
+			LauncherItemKey key = entry.getKey();
+			IconCache.Entry cached = entry.getValue();
+			if (cached.label == null || hideApps.contains(key.componentName)) {
+				continue;
+			}
+			Bitmap bitmap = cached.getBitmap();
+			if (bitmap == null) {
+				continue;
+			}
+			cachedApps.put(key, new AppIcon(key.componentName, cached.label,
+					bitmap, key.userHandle));
+		}
+		if (cachedApps.isEmpty()) {
+			return;
+		}
+		List<Icon> cachedIcons = createMenu(context, cachedApps,
+				NeoLauncherApp.getPrefs(context).openListWith() ==
+						Preferences.OPEN_LIST_WITH_ICON);
+		AppIndex cachedIndex = new AppIndex(cachedApps);
+		// Only if nothing has been published in the meantime.
+		if (!index.compareAndSet(AppIndex.EMPTY, cachedIndex)) {
+			return;
+		}
+		handler.post(() -> {
+			icons.clear();
+			icons.addAll(cachedIcons);
+			bitmapCache.reset(cachedIndex.getApps(),
+					getPlaceholder(context));
+			propagateUpdate();
+			loadLargeIcons(context);
+		});
+	}
+
+	private static List<PendingIcon> indexApps(
 			Context context,
-			String packageNameRestriction,
-			UserHandle userHandleRestriction,
+			IndexRequestQueue.Batch batch,
 			HashSet<ComponentName> hideApps,
-			Map<LauncherItemKey, AppIcon> allApps) {
+			Map<LauncherItemKey, AppIcon> allApps,
+			AppIndex oldIndex,
+			IconCache iconCache,
+			int iconSize,
+			Bitmap placeholder) {
 		PackageManager pm = context.getPackageManager();
-		NeoLauncherApp.iconPack.selectPack(pm,
-				NeoLauncherApp.getPrefs(context).getIconPack());
-		NeoLauncherApp.iconPack.restoreMappings(context);
+		IconPack iconPack = NeoLauncherApp.iconPack;
+		String iconPackName = NeoLauncherApp.getPrefs(context).getIconPack();
+		// Re-reading all icon packs is expensive and only required
+		// when the batch may have changed the selected pack.
+		if (batch.isFull() || !iconPack.isSelected(iconPackName) ||
+				batch.touches(iconPack.packs.keySet())) {
+			iconPack.selectPack(context, iconPackName);
+			iconPack.restoreMappings(context);
+		}
 		hideApps.add(new ComponentName(context, HomeActivity.class));
 		if (HAS_LAUNCHER_APP) {
-			indexProfilesApps(
+			return indexProfilesApps(
+					pm,
 					(LauncherApps) context.getSystemService(
 							Context.LAUNCHER_APPS_SERVICE),
 					(UserManager) context.getSystemService(
 							Context.USER_SERVICE),
-					allApps, packageNameRestriction, userHandleRestriction,
-					hideApps);
+					allApps, batch, hideApps, oldIndex, iconCache,
+					placeholder);
 		} else {
-			indexIntentsApps(pm, allApps, packageNameRestriction, hideApps);
+			for (IndexRequestQueue.Request request : batch.requests) {
+				indexIntentsApps(pm, allApps, request.packageName, hideApps,
+						iconSize);
+			}
+			return Collections.emptyList();
 		}
 	}
 
@@ -316,7 +1146,8 @@ public class AppMenu extends CanvasPieMenu {
 			PackageManager pm,
 			Map<LauncherItemKey, AppIcon> allApps,
 			String packageNameRestriction,
-			Set<ComponentName> hideApps) {
+			Set<ComponentName> hideApps,
+			int iconSize) {
 		Intent intent = new Intent(Intent.ACTION_MAIN, null);
 		intent.addCategory(Intent.CATEGORY_LAUNCHER);
 		if (packageNameRestriction != null) {
@@ -336,44 +1167,108 @@ public class AppMenu extends CanvasPieMenu {
 					componentName,
 					info.loadLabel(pm).toString(),
 					icon,
-					null);
+					null,
+					iconSize);
 		}
 	}
 
 	@SuppressLint("UseRequiresApi")
 	@TargetApi(Build.VERSION_CODES.LOLLIPOP)
-	private static void indexProfilesApps(
+	private static List<PendingIcon> indexProfilesApps(
+			PackageManager pm,
 			LauncherApps la,
 			UserManager um,
 			Map<LauncherItemKey, AppIcon> allApps,
-			String packageNameRestriction,
-			UserHandle userHandleRestriction,
-			Set<ComponentName> hideApps) {
-		List<UserHandle> profiles =
-				packageNameRestriction != null && userHandleRestriction != null
-						? Collections.singletonList(userHandleRestriction)
-						: um.getUserProfiles();
-		// If packageNameRestriction == null and userHandleRestriction != null
-		// apps was cleared and all profiles will be indexed.
-		for (UserHandle profile : profiles) {
-			for (LauncherActivityInfo info :
-					la.getActivityList(packageNameRestriction, profile)) {
-				ComponentName componentName = info.getComponentName();
-				if (hideApps.contains(componentName)) {
+			IndexRequestQueue.Batch batch,
+			Set<ComponentName> hideApps,
+			AppIndex oldIndex,
+			IconCache iconCache,
+			Bitmap placeholder) {
+		// Package infos are shared between profiles so it's enough
+		// to query them once per package.
+		HashMap<String, PackageInfo> packageInfos = new HashMap<>();
+		ArrayList<PendingIcon> pendingIcons = new ArrayList<>();
+		List<UserHandle> allProfiles = null;
+		for (IndexRequestQueue.Request request : batch.requests) {
+			if (allProfiles == null) {
+				allProfiles = um.getUserProfiles();
+			}
+			List<UserHandle> profiles = request.userHandle != null
+					? Collections.singletonList(request.userHandle)
+					: allProfiles;
+			for (UserHandle profile : profiles) {
+				if (!allProfiles.contains(profile)) {
+					// The profile has been removed.
 					continue;
 				}
-				Drawable icon = NeoLauncherApp.iconPack.getIcon(componentName);
-				if (icon == null &&
-						(icon = getBadgedIcon(info)) == null) {
-					continue;
+				for (LauncherActivityInfo info :
+						la.getActivityList(request.packageName, profile)) {
+					if (hideApps.contains(info.getComponentName())) {
+						continue;
+					}
+					PendingIcon pendingIcon = addActivity(pm, allApps, info,
+							profile, packageInfos, oldIndex, iconCache,
+							placeholder);
+					if (pendingIcon != null) {
+						pendingIcons.add(pendingIcon);
+					}
 				}
-				addApp(allApps,
-						componentName,
-						info.getLabel().toString(),
-						icon,
-						profile);
 			}
 		}
+		return pendingIcons;
+	}
+
+	// Returns the pending icon if the icon isn't cached.
+	@SuppressLint("UseRequiresApi")
+	@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+	private static PendingIcon addActivity(
+			PackageManager pm,
+			Map<LauncherItemKey, AppIcon> allApps,
+			LauncherActivityInfo info,
+			UserHandle profile,
+			Map<String, PackageInfo> packageInfos,
+			AppIndex oldIndex,
+			IconCache iconCache,
+			Bitmap placeholder) {
+		ComponentName componentName = info.getComponentName();
+		String packageName = componentName.getPackageName();
+		PackageInfo packageInfo = packageInfos.get(packageName);
+		if (packageInfo == null && !packageInfos.containsKey(packageName)) {
+			packageInfo = IconCache.getPackageInfo(pm, packageName);
+			packageInfos.put(packageName, packageInfo);
+		}
+		LauncherItemKey key = new LauncherItemKey(componentName, profile);
+		String iconPackKey = NeoLauncherApp.iconPack.getIconPackKey(
+				componentName);
+		IconCache.Entry cached = iconCache.get(key, packageInfo,
+				iconPackKey);
+		if (cached != null) {
+			String label = cached.label;
+			if (label == null) {
+				label = info.getLabel().toString();
+				iconCache.setLabel(key, label);
+			}
+			// The icon hasn't changed, so keep the bitmap that is
+			// already in memory, even if it has been evicted.
+			AppIcon oldIcon = oldIndex.get(key);
+			if (oldIcon != null &&
+					(oldIcon.evicted || oldIcon.bitmap != placeholder)) {
+				allApps.put(key, oldIcon.withLabel(label));
+				return null;
+			}
+			Bitmap bitmap = cached.getBitmap();
+			if (bitmap != null) {
+				allApps.put(key, new AppIcon(componentName, label,
+						bitmap, profile));
+				return null;
+			}
+		}
+		AppIcon appIcon = new AppIcon(componentName,
+				info.getLabel().toString(),
+				placeholder,
+				profile);
+		allApps.put(key, appIcon);
+		return new PendingIcon(appIcon, info, key, packageInfo, iconPackKey);
 	}
 
 	@SuppressLint("UseRequiresApi")
@@ -394,8 +1289,9 @@ public class AppMenu extends CanvasPieMenu {
 
 	private static AppIcon addApp(Map<LauncherItemKey, AppIcon> allApps,
 			ComponentName componentName, String label,
-			Drawable icon, UserHandle userHandle) {
-		AppIcon appIcon = new AppIcon(componentName, label, icon, userHandle);
+			Drawable icon, UserHandle userHandle, int iconSize) {
+		AppIcon appIcon = new AppIcon(componentName, label,
+				Converter.getBitmapFromDrawable(icon, iconSize), userHandle);
 		allApps.put(new LauncherItemKey(componentName, userHandle), appIcon);
 		return appIcon;
 	}
@@ -403,7 +1299,7 @@ public class AppMenu extends CanvasPieMenu {
 	private List<Icon> createMenu(Context context,
 			Map<LauncherItemKey, AppIcon> allApps,
 			boolean useDrawerIcon) {
-		AppMenu.Icon drawerIcon = useDrawerIcon
+		AppIcon drawerIcon = useDrawerIcon
 				? addDrawerIcon(context, allApps)
 				: null;
 		ArrayList<Icon> menu = Menu.restore(context, allApps);
@@ -414,29 +1310,35 @@ public class AppMenu extends CanvasPieMenu {
 			if (!menu.contains(drawerIcon)) {
 				menu.add(0, drawerIcon);
 			}
-			removePackageFromApps(allApps, drawerPackageName, null);
+			allApps.remove(new LauncherItemKey(drawerIcon.componentName,
+				null));
 		} else {
 			drawerPackageName = null;
 		}
 		return menu;
 	}
 
-	private AppMenu.Icon addDrawerIcon(Context context,
+	private AppIcon addDrawerIcon(Context context,
 			Map<LauncherItemKey, AppIcon> allApps) {
 		String appPackageName = context.getPackageName();
 		drawerPackageName = appPackageName + ".drawer";
 		ComponentName componentName = new ComponentName(
 				drawerPackageName, "Drawer");
-		Drawable icon = NeoLauncherApp.iconPack.getIcon(componentName);
-		if (icon == null) {
-			icon = Converter.getDrawable(
-					context.getResources(), R.drawable.ic_drawer);
-		}
 		return addApp(allApps,
 				componentName,
 				"Drawer",
-				icon,
-				null);
+				getDrawerIcon(context, componentName),
+				null,
+				IconSizes.getListSize(context));
+	}
+
+	private static Drawable getDrawerIcon(Context context,
+			ComponentName componentName) {
+		Drawable icon = NeoLauncherApp.iconPack.getIcon(componentName);
+		return icon != null
+				? icon
+				: Converter.getDrawable(context.getResources(),
+						R.drawable.ic_drawer);
 	}
 
 	private static void createInitialMenu(List<Icon> menu,
@@ -534,16 +1436,45 @@ public class AppMenu extends CanvasPieMenu {
 		}
 	}
 
-	private static void removePackageFromApps(
+	private static void removeRequestFromApps(
 			Map<LauncherItemKey, AppIcon> allApps,
-			String packageName,
-			UserHandle userHandle) {
+			AppIndex appIndex,
+			IndexRequestQueue.Request request) {
+		if (request.packageName != null) {
+			// Only touch the keys of this package.
+			for (LauncherItemKey key : appIndex.getKeys(
+					request.packageName, request.userHandle)) {
+				allApps.remove(key);
+			}
+			return;
+		}
 		Iterator<Map.Entry<LauncherItemKey, AppIcon>> it =
 				allApps.entrySet().iterator();
 		while (it.hasNext()) {
 			AppIcon appIcon = it.next().getValue();
-			if (packageName.equals(appIcon.componentName.getPackageName()) &&
-					(userHandle == null || userHandle.equals(appIcon.userHandle))) {
+			if (request.matches(appIcon.componentName.getPackageName(),
+					appIcon.userHandle)) {
+				it.remove();
+			}
+		}
+	}
+
+	// Replaces the pie icons of all apps in the given batch with
+	// their new instances or removes them if they're gone.
+	private void patchPieMenu(IndexRequestQueue.Batch batch,
+			AppIndex appIndex) {
+		ListIterator<Icon> it = icons.listIterator();
+		while (it.hasNext()) {
+			AppIcon appIcon = (AppIcon) it.next();
+			if (!batch.matches(appIcon.componentName.getPackageName(),
+					appIcon.userHandle)) {
+				continue;
+			}
+			AppIcon newIcon = appIndex.get(new LauncherItemKey(
+					appIcon.componentName, appIcon.userHandle));
+			if (newIcon != null) {
+				it.set(newIcon);
+			} else {
 				it.remove();
 			}
 		}
@@ -651,23 +1582,4 @@ public class AppMenu extends CanvasPieMenu {
 		}
 		Toast.makeText(context, m, Toast.LENGTH_SHORT).show();
 	}
-
-	private static String getSubject(int item, AppIcon appIcon,
-			Locale defaultLocale) {
-		if (item == Preferences.SEARCH_PARAMETER_PACKAGE_NAME) {
-			return appIcon.componentName.getPackageName()
-					.toLowerCase(defaultLocale);
-		}
-		return appIcon.label.toLowerCase(defaultLocale);
-	}
-
-	private static int hammingDistance(String a, String b) {
-		int count = 0;
-		for (int i = 0, l = Math.min(a.length(), b.length()); i < l; ++i) {
-			if (a.charAt(i) != b.charAt(i)) {
-				++count;
-			}
-		}
-		return count;
-	}
 }
@@ -0,0 +1,340 @@
+package com.pt.ifp.neolauncher.content;
+
+import android.os.UserHandle;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.pt.ifp.neolauncher.preference.Preferences;
+
+/**
+ * Search structures for the apps of an AppIndex snapshot.
+ *
+ * Keeps the lowercase search keys of all apps, the ids sorted by
+ * key for prefix queries and trigram postings for substring queries,
+ * so a query doesn't need to lowercase or scan every label. Apps are
+ * sorted by label once, with a Collator for the locale, and results
+ * are taken from that order instead of being sorted again. Built
+ * once per snapshot and immutable afterwards.
+ */
+public final class AppSearchIndex {
+	public final Locale locale;
+
+	private final AppIndex appIndex;
+	private final Keys labels;
+	private final Keys packageNames;
+	// All ids in the order of their labels.
+	private final int[] byLabel;
+	// Position of each id in byLabel.
+	private final int[] labelOrder;
+
+	private static final class Keys {
+		private final String[] keys;
+		// Ids sorted by key.
+		private final int[] sorted;
+		// Ids of all keys that contain a trigram.
+		private final HashMap<Long, int[]> trigrams;
+
+		private Keys(String[] keys) {
+			this.keys = keys;
+			sorted = sortIds(keys);
+			trigrams = indexTrigrams(keys);
+		}
+	}
+
+	AppSearchIndex(AppIndex appIndex, Locale locale) {
+		this.appIndex = appIndex;
+		this.locale = locale;
+		int size = appIndex.size();
+		String[] labelKeys = new String[size];
+		String[] packageKeys = new String[size];
+		UserHandle[] userHandles = new UserHandle[size];
+		Collator collator = Collator.getInstance(locale);
+		// Ignore case but not accents.
+		collator.setStrength(Collator.SECONDARY);
+		CollationKey[] collationKeys = new CollationKey[size];
+		for (int id = 0; id < size; ++id) {
+			AppMenu.AppIcon appIcon = appIndex.getApp(id);
+			String label = appIndex.getLabel(id);
+			labelKeys[id] = label.toLowerCase(locale);
+			collationKeys[id] = collator.getCollationKey(label);
+			packageKeys[id] = appIcon.componentName.getPackageName()
+					.toLowerCase(locale);
+			userHandles[id] = appIcon.userHandle;
+		}
+		labels = new Keys(labelKeys);
+		packageNames = new Keys(packageKeys);
+		byLabel = sortByLabel(collationKeys, labelKeys, userHandles);
+		labelOrder = new int[size];
+		for (int i = 0; i < size; ++i) {
+			labelOrder[byLabel[i]] = i;
+		}
+	}
+
+	/**
+	 * Returns the ids of all apps whose key starts with the given
+	 * lowercase query.
+	 *
+	 * @param candidates only these ids can match, may be null
+	 */
+	public BitSet startsWith(int item, String query, BitSet candidates) {
+		Keys keys = getKeys(item);
+		BitSet ids = new BitSet(keys.keys.length);
+		if (candidates != null) {
+			for (int id = candidates.nextSetBit(0); id > -1;
+					id = candidates.nextSetBit(id + 1)) {
+				if (keys.keys[id].startsWith(query)) {
+					ids.set(id);
+				}
+			}
+			return ids;
+		}
+		int low = 0;
+		int high = keys.sorted.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (keys.keys[keys.sorted[mid]].compareTo(query) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		for (int i = low; i < keys.sorted.length; ++i) {
+			int id = keys.sorted[i];
+			if (!keys.keys[id].startsWith(query)) {
+				break;
+			}
+			ids.set(id);
+		}
+		return ids;
+	}
+
+	/**
+	 * Returns the ids of all apps whose key contains the given
+	 * lowercase query.
+	 *
+	 * @param candidates only these ids can match, may be null
+	 */
+	public BitSet contains(int item, String query, BitSet candidates) {
+		Keys keys = getKeys(item);
+		BitSet ids = new BitSet(keys.keys.length);
+		if (candidates != null) {
+			for (int id = candidates.nextSetBit(0); id > -1;
+					id = candidates.nextSetBit(id + 1)) {
+				if (keys.keys[id].contains(query)) {
+					ids.set(id);
+				}
+			}
+			return ids;
+		}
+		if (query.length() < 3) {
+			// Too short for trigrams, the keys are short anyway.
+			for (int id = 0; id < keys.keys.length; ++id) {
+				if (keys.keys[id].contains(query)) {
+					ids.set(id);
+				}
+			}
+			return ids;
+		}
+		// Only the apps in the shortest posting list can match.
+		int[] shortest = null;
+		for (int i = 0, l = query.length() - 2; i < l; ++i) {
+			int[] posting = keys.trigrams.get(getTrigram(query, i));
+			if (posting == null) {
+				return ids;
+			}
+			if (shortest == null || posting.length < shortest.length) {
+				shortest = posting;
+			}
+		}
+		for (int id : shortest) {
+			if (keys.keys[id].contains(query)) {
+				ids.set(id);
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * Returns the ids of all apps that aren't in exclude and whose
+	 * key has a hamming distance of less than 2 to the given query.
+	 *
+	 * @param candidates only these ids can match, may be null
+	 */
+	public BitSet hamming(int item, String query, BitSet exclude,
+			BitSet candidates) {
+		Keys keys = getKeys(item);
+		BitSet ids;
+		if (candidates != null) {
+			ids = (BitSet) candidates.clone();
+		} else {
+			ids = new BitSet(keys.keys.length);
+			ids.set(0, keys.keys.length);
+		}
+		ids.andNot(exclude);
+		for (int id = ids.nextSetBit(0); id > -1;
+				id = ids.nextSetBit(id + 1)) {
+			if (hammingDistance(keys.keys[id], query) > 1) {
+				ids.clear(id);
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * Returns the ids of all apps whose key matches the query of the
+	 * given matcher, best match first and in label order otherwise.
+	 *
+	 * @param candidates only these ids can match, may be null
+	 */
+	public int[] fuzzy(int item, FuzzyMatcher matcher, BitSet candidates) {
+		Keys keys = getKeys(item);
+		if (candidates == null) {
+			candidates = new BitSet(keys.keys.length);
+			candidates.set(0, keys.keys.length);
+		}
+		// Score in the upper and label order in the lower half, so
+		// sorting the packed values sorts by both.
+		long[] packed = new long[candidates.cardinality()];
+		int count = 0;
+		for (int id = candidates.nextSetBit(0); id > -1;
+				id = candidates.nextSetBit(id + 1)) {
+			int score = matcher.score(keys.keys[id]);
+			if (score != FuzzyMatcher.NO_MATCH) {
+				packed[count++] = ((long) -score << 32) | labelOrder[id];
+			}
+		}
+		Arrays.sort(packed, 0, count);
+		int[] ids = new int[count];
+		for (int i = 0; i < count; ++i) {
+			ids[i] = byLabel[(int) packed[i]];
+		}
+		return ids;
+	}
+
+	/**
+	 * Adds the apps of the given ids to the list in the given order.
+	 */
+	public void addAll(int[] ids, List<AppMenu.AppIcon> list) {
+		for (int id : ids) {
+			list.add(appIndex.getApp(id));
+		}
+	}
+
+	/**
+	 * Adds the apps of the given ids to the list in label order.
+	 */
+	public void addInLabelOrder(BitSet ids, List<AppMenu.AppIcon> list) {
+		for (int id : byLabel) {
+			if (ids.get(id)) {
+				list.add(appIndex.getApp(id));
+			}
+		}
+	}
+
+	private Keys getKeys(int item) {
+		return item == Preferences.SEARCH_PARAMETER_PACKAGE_NAME
+				? packageNames
+				: labels;
+	}
+
+	// Sorts by key for binary searches.
+	private static int[] sortIds(String[] keys) {
+		Integer[] ids = boxIds(keys.length);
+		Arrays.sort(ids, (a, b) -> keys[a].compareTo(keys[b]));
+		return unboxIds(ids);
+	}
+
+	// Sorts by the collation keys of the labels, so the order is
+	// correct for the locale, then by key and then by the hash code
+	// of the user handle to keep apps from different profiles apart.
+	private static int[] sortByLabel(CollationKey[] collationKeys,
+			String[] keys, UserHandle[] userHandles) {
+		Integer[] ids = boxIds(keys.length);
+		Arrays.sort(ids, (a, b) -> {
+			int result = collationKeys[a].compareTo(collationKeys[b]);
+			if (result == 0) {
+				result = keys[a].compareTo(keys[b]);
+			}
+			if (result != 0) {
+				return result;
+			}
+			UserHandle left = userHandles[a];
+			UserHandle right = userHandles[b];
+			return left != null && right != null
+					? Integer.compare(left.hashCode(), right.hashCode())
+					: 0;
+		});
+		return unboxIds(ids);
+	}
+
+	private static Integer[] boxIds(int size) {
+		Integer[] ids = new Integer[size];
+		for (int id = 0; id < size; ++id) {
+			ids[id] = id;
+		}
+		return ids;
+	}
+
+	private static int[] unboxIds(Integer[] ids) {
+		int[] sorted = new int[ids.length];
+		for (int i = 0; i < ids.length; ++i) {
+			sorted[i] = ids[i];
+		}
+		return sorted;
+	}
+
+	private static HashMap<Long, int[]> indexTrigrams(String[] keys) {
+		HashMap<Long, ArrayList<Integer>> postings = new HashMap<>();
+		for (int id = 0; id < keys.length; ++id) {
+			String key = keys[id];
+			for (int i = 0, l = key.length() - 2; i < l; ++i) {
+				Long trigram = getTrigram(key, i);
+				ArrayList<Integer> posting = postings.get(trigram);
+				if (posting == null) {
+					posting = new ArrayList<>(2);
+					postings.put(trigram, posting);
+				}
+				int last = posting.size() - 1;
+				// Ids are added in order so duplicates are adjacent.
+				if (last < 0 || posting.get(last) != id) {
+					posting.add(id);
+				}
+			}
+		}
+		HashMap<Long, int[]> trigrams = new HashMap<>(postings.size() * 2);
+		for (Map.Entry<Long, ArrayList<Integer>> entry :
+				postings.entrySet()) {
+			ArrayList<Integer> posting = entry.getValue();
+			int[] ids = new int[posting.size()];
+			for (int i = 0; i < ids.length; ++i) {
+				ids[i] = posting.get(i);
+			}
+			trigrams.put(entry.getKey(), ids);
+		}
+		return trigrams;
+	}
+
+	private static long getTrigram(String s, int i) {
+		return ((long) s.charAt(i) << 32) |
+				((long) s.charAt(i + 1) << 16) |
+				s.charAt(i + 2);
+	}
+
+	private static int hammingDistance(String a, String b) {
+		int count = 0;
+		for (int i = 0, l = Math.min(a.length(), b.length()); i < l; ++i) {
+			if (a.charAt(i) != b.charAt(i)) {
+				++count;
+			}
+		}
+		return count;
+	}
+}
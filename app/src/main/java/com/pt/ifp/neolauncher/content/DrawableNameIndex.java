@@ -0,0 +1,225 @@
+package com.pt.ifp.neolauncher.content;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Token index over the drawable names of an icon pack.
+ *
+ * Names are split into tokens at underscores, case changes and
+ * digits. A name matches a query if every word of the query is the
+ * prefix of one of its tokens or if the name contains the query.
+ * Results are ranked by how well a name matches the target app.
+ * Immutable, so it can be searched from any thread.
+ */
+public final class DrawableNameIndex {
+	// Too common to tell apps apart.
+	private static final HashSet<String> STOP_WORDS = new HashSet<>(
+			Arrays.asList("com", "org", "net", "android", "google", "app",
+					"apps", "mobile"));
+
+	private final String[] names;
+	private final String[] lowerNames;
+	// Sorted tokens of all names with the id of their name.
+	private final String[] tokens;
+	private final int[] tokenIds;
+	// All ids, best match for the target app first.
+	private final int[] ranked;
+
+	private static final class Token implements Comparable<Token> {
+		private final String token;
+		private final int id;
+
+		private Token(String token, int id) {
+			this.token = token;
+			this.id = id;
+		}
+
+		@Override
+		public int compareTo(Token other) {
+			int cmp = token.compareTo(other.token);
+			return cmp != 0 ? cmp : Integer.compare(id, other.id);
+		}
+	}
+
+	/**
+	 * @param names drawable names
+	 * @param packageName package name of the target app
+	 * @param label label of the target app, may be null
+	 */
+	public DrawableNameIndex(List<String> names, String packageName,
+			String label) {
+		int size = names.size();
+		this.names = names.toArray(new String[0]);
+		lowerNames = new String[size];
+		ArrayList<String> targetTokens = getTargetTokens(packageName,
+				label);
+		ArrayList<Token> all = new ArrayList<>(size * 3);
+		int[] scores = new int[size];
+		ArrayList<String> nameTokens = new ArrayList<>();
+		for (int id = 0; id < size; ++id) {
+			String name = this.names[id];
+			lowerNames[id] = name.toLowerCase(Locale.ROOT);
+			nameTokens.clear();
+			tokenize(name, nameTokens);
+			for (String token : nameTokens) {
+				all.add(new Token(token, id));
+			}
+			scores[id] = score(nameTokens, targetTokens);
+		}
+		Token[] sorted = all.toArray(new Token[0]);
+		Arrays.sort(sorted);
+		tokens = new String[sorted.length];
+		tokenIds = new int[sorted.length];
+		for (int i = 0; i < sorted.length; ++i) {
+			tokens[i] = sorted[i].token;
+			tokenIds[i] = sorted[i].id;
+		}
+		ranked = rank(scores);
+	}
+
+	public int size() {
+		return names.length;
+	}
+
+	public String getName(int id) {
+		return names[id];
+	}
+
+	/**
+	 * Returns the ids of all names that match the given query, best
+	 * match first.
+	 *
+	 * @param candidates result of a query this query starts with,
+	 *                   to only narrow that down, or null
+	 */
+	public int[] search(String query, int[] candidates) {
+		if (candidates == null) {
+			candidates = ranked;
+		}
+		query = query.trim().toLowerCase(Locale.ROOT);
+		if (query.isEmpty()) {
+			return candidates;
+		}
+		BitSet matches = null;
+		for (String term : query.split("[\\s_]+")) {
+			if (term.isEmpty()) {
+				continue;
+			}
+			BitSet termMatches = findPrefix(term);
+			if (matches == null) {
+				matches = termMatches;
+			} else {
+				matches.and(termMatches);
+			}
+		}
+		int[] result = new int[candidates.length];
+		int count = 0;
+		for (int id : candidates) {
+			if ((matches != null && matches.get(id)) ||
+					lowerNames[id].contains(query)) {
+				result[count++] = id;
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	// Returns the ids of all names with a token that starts with
+	// the given prefix.
+	private BitSet findPrefix(String prefix) {
+		BitSet ids = new BitSet(names.length);
+		int low = 0;
+		int high = tokens.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (tokens[mid].compareTo(prefix) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		for (int i = low; i < tokens.length &&
+				tokens[i].startsWith(prefix); ++i) {
+			ids.set(tokenIds[i]);
+		}
+		return ids;
+	}
+
+	private static int[] rank(int[] scores) {
+		Integer[] ids = new Integer[scores.length];
+		for (int id = 0; id < ids.length; ++id) {
+			ids[id] = id;
+		}
+		// Stable, so names with the same score keep their order.
+		Arrays.sort(ids, (a, b) -> Integer.compare(scores[b], scores[a]));
+		int[] ranked = new int[ids.length];
+		for (int i = 0; i < ids.length; ++i) {
+			ranked[i] = ids[i];
+		}
+		return ranked;
+	}
+
+	private static int score(List<String> nameTokens,
+			List<String> targetTokens) {
+		int score = 0;
+		for (String target : targetTokens) {
+			for (String token : nameTokens) {
+				if (token.equals(target)) {
+					score += 2;
+				} else if (token.length() > 2 &&
+						(token.startsWith(target) ||
+								target.startsWith(token))) {
+					++score;
+				}
+			}
+		}
+		return score;
+	}
+
+	private static ArrayList<String> getTargetTokens(String packageName,
+			String label) {
+		ArrayList<String> all = new ArrayList<>();
+		if (packageName != null) {
+			tokenize(packageName, all);
+		}
+		if (label != null) {
+			tokenize(label, all);
+		}
+		ArrayList<String> targetTokens = new ArrayList<>();
+		for (String token : all) {
+			if (token.length() > 2 &&
+					!STOP_WORDS.contains(token) &&
+					!targetTokens.contains(token)) {
+				targetTokens.add(token);
+			}
+		}
+		return targetTokens;
+	}
+
+	// Splits at anything that isn't a letter or digit, at lower to
+	// upper case changes and between letters and digits.
+	private static void tokenize(String s, List<String> tokens) {
+		int start = -1;
+		for (int i = 0, length = s.length(); i <= length; ++i) {
+			char c = i < length ? s.charAt(i) : ' ';
+			boolean boundary = !Character.isLetterOrDigit(c);
+			if (!boundary && start > -1) {
+				char prev = s.charAt(i - 1);
+				boundary = (Character.isLowerCase(prev) &&
+						Character.isUpperCase(c)) ||
+						Character.isDigit(prev) != Character.isDigit(c);
+			}
+			if (boundary && start > -1) {
+				tokens.add(s.substring(start, i).toLowerCase(Locale.ROOT));
+				start = -1;
+			}
+			if (start < 0 && Character.isLetterOrDigit(c)) {
+				start = i;
+			}
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package com.pt.ifp.neolauncher.content;
+
+/**
+ * Typo tolerant matcher for one lowercase query.
+ *
+ * Finds the query anywhere in a key with up to getMaxErrors()
+ * insertions, deletions or substitutions, using Myers' bit-parallel
+ * edit distance, so a key is scanned once no matter how long the
+ * query is. Only the first 64 characters of a query are used.
+ * Immutable, so it can be used from any thread.
+ */
+public final class FuzzyMatcher {
+	public static final int NO_MATCH = -1;
+
+	private static final int MAX_LENGTH = 64;
+	private static final int SCORE_PREFIX = 1000;
+	private static final int SCORE_WORD = 800;
+	private static final int SCORE_CONTAINS = 600;
+	private static final int SCORE_FUZZY = 400;
+	private static final int ERROR_PENALTY = 150;
+	private static final int BONUS_WORD = 50;
+	private static final int MAX_POSITION_PENALTY = 99;
+
+	private final String query;
+	private final int length;
+	private final int maxErrors;
+	private final long lastBit;
+	// Bit masks of the positions of each character in the query.
+	private final long[] asciiMasks = new long[128];
+	private final char[] otherChars;
+	private final long[] otherMasks;
+
+	public FuzzyMatcher(String query) {
+		this.query = query;
+		length = Math.min(query.length(), MAX_LENGTH);
+		maxErrors = getMaxErrors(query);
+		lastBit = length > 0 ? 1L << (length - 1) : 0;
+		char[] chars = new char[length];
+		long[] masks = new long[length];
+		int others = 0;
+		for (int i = 0; i < length; ++i) {
+			char c = query.charAt(i);
+			if (c < 128) {
+				asciiMasks[c] |= 1L << i;
+				continue;
+			}
+			int j = 0;
+			while (j < others && chars[j] != c) {
+				++j;
+			}
+			if (j == others) {
+				chars[others++] = c;
+			}
+			masks[j] |= 1L << i;
+		}
+		otherChars = chars;
+		otherMasks = masks;
+	}
+
+	/**
+	 * Returns how many edits a match for the given query may have.
+	 * Short queries need to match exactly or they'd match anything.
+	 */
+	public static int getMaxErrors(String query) {
+		int length = Math.min(query.length(), MAX_LENGTH);
+		if (length < 4) {
+			return 0;
+		} else if (length < 8) {
+			return 1;
+		}
+		return 2;
+	}
+
+	public String getQuery() {
+		return query;
+	}
+
+	/**
+	 * Returns how well the given lowercase key matches or NO_MATCH.
+	 * Prefix matches rank before matches at a word boundary, before
+	 * other exact matches, before matches with errors. Earlier
+	 * matches rank before later ones.
+	 */
+	public int score(String key) {
+		if (length == 0) {
+			return SCORE_PREFIX;
+		}
+		if (key.length() < length - maxErrors) {
+			return NO_MATCH;
+		}
+		int index = key.indexOf(query);
+		if (index == 0) {
+			return SCORE_PREFIX;
+		} else if (index > 0) {
+			int penalty = Math.min(index, MAX_POSITION_PENALTY);
+			return Character.isLetterOrDigit(key.charAt(index - 1))
+					? SCORE_CONTAINS - penalty
+					: SCORE_WORD - penalty;
+		}
+		if (maxErrors == 0) {
+			return NO_MATCH;
+		}
+		// Vertical deltas of the current column of the distance matrix.
+		long pv = ~0L;
+		long mv = 0L;
+		int distance = length;
+		int best = distance;
+		int bestEnd = 0;
+		for (int i = 0, l = key.length(); i < l; ++i) {
+			long eq = getMask(key.charAt(i));
+			long xv = eq | mv;
+			long xh = (((eq & pv) + pv) ^ pv) | eq;
+			long ph = mv | ~(xh | pv);
+			long mh = pv & xh;
+			if ((ph & lastBit) != 0) {
+				++distance;
+			} else if ((mh & lastBit) != 0) {
+				--distance;
+			}
+			// No carry into the first row because the match may
+			// start anywhere in the key.
+			ph <<= 1;
+			mh <<= 1;
+			pv = mh | ~(xv | ph);
+			mv = ph & xv;
+			if (distance < best) {
+				best = distance;
+				bestEnd = i;
+				if (best == 0) {
+					break;
+				}
+			}
+			// The distance can't drop by more than the remaining
+			// characters.
+			if (distance - (l - i - 1) > maxErrors && best > maxErrors) {
+				break;
+			}
+		}
+		if (best > maxErrors) {
+			return NO_MATCH;
+		}
+		// Approximate, the match may be longer than the query.
+		int start = Math.max(0, bestEnd + 1 - length - best);
+		int score = SCORE_FUZZY - best * ERROR_PENALTY -
+				Math.min(start, MAX_POSITION_PENALTY);
+		if (start == 0 || !Character.isLetterOrDigit(key.charAt(start - 1))) {
+			score += BONUS_WORD;
+		}
+		return score;
+	}
+
+	private long getMask(char c) {
+		if (c < 128) {
+			return asciiMasks[c];
+		}
+		for (int i = 0; i < otherChars.length; ++i) {
+			if (otherChars[i] == c) {
+				return otherMasks[i];
+			}
+		}
+		return 0L;
+	}
+}
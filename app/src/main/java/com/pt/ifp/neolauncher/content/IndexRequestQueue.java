@@ -0,0 +1,225 @@
+package com.pt.ifp.neolauncher.content;
+
+import android.os.UserHandle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Collects index requests while an index pass is running so they can
+ * be merged into a single pass afterwards. No request is ever dropped.
+ */
+public class IndexRequestQueue {
+	public static class Request {
+		// Null if all packages should be indexed.
+		public final String packageName;
+		// Null if all profiles should be indexed.
+		public final UserHandle userHandle;
+
+		private Request(String packageName, UserHandle userHandle) {
+			this.packageName = packageName;
+			this.userHandle = userHandle;
+		}
+
+		/**
+		 * Returns true if the given app is affected by this request.
+		 */
+		public boolean matches(String packageName, UserHandle userHandle) {
+			return (this.packageName == null ||
+					this.packageName.equals(packageName)) &&
+					(this.userHandle == null ||
+							this.userHandle.equals(userHandle));
+		}
+
+		private boolean covers(Request request) {
+			return (packageName == null ||
+					packageName.equals(request.packageName)) &&
+					(userHandle == null ||
+							userHandle.equals(request.userHandle));
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Request)) {
+				return false;
+			}
+			Request request = (Request) o;
+			return equals(packageName, request.packageName) &&
+					equals(userHandle, request.userHandle);
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(new Object[]{packageName, userHandle});
+		}
+
+		private static boolean equals(Object a, Object b) {
+			//noinspection EqualsReplaceableByObjectsCall
+			return a == b || (a != null && a.equals(b));
+		}
+	}
+
+	public static class Batch {
+		public final List<Request> requests;
+		public final int events;
+		// True if only the labels of all apps need to be resolved
+		// again. Has no requests then.
+		public final boolean relabel;
+
+		private Batch(List<Request> requests, int events, boolean relabel) {
+			this.requests = requests;
+			this.events = events;
+			this.relabel = relabel;
+		}
+
+		public int getCoalesced() {
+			return events - Math.max(1, requests.size());
+		}
+
+		public boolean isFull() {
+			return requests.size() == 1 &&
+					requests.get(0).packageName == null &&
+					requests.get(0).userHandle == null;
+		}
+
+		/**
+		 * Returns true if all requests are limited to a package.
+		 */
+		public boolean isPackageBatch() {
+			for (Request request : requests) {
+				if (request.packageName == null) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Returns true if this batch may change any of the given
+		 * packages.
+		 */
+		public boolean touches(Collection<String> packageNames) {
+			for (Request request : requests) {
+				if (request.packageName == null ||
+						packageNames.contains(request.packageName)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Returns true if the given app is affected by this batch.
+		 */
+		public boolean matches(String packageName, UserHandle userHandle) {
+			for (Request request : requests) {
+				if (request.matches(packageName, userHandle)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private final LinkedHashSet<Request> pending = new LinkedHashSet<>();
+
+	private int pendingEvents;
+	private int pendingRelabels;
+	private int totalEvents;
+	private int totalCoalesced;
+	private int totalBatches;
+
+	/**
+	 * Returns a batch for all apps of the given profile that is not
+	 * part of the queue.
+	 */
+	public static Batch newProfileBatch(UserHandle userHandle) {
+		return new Batch(Collections.singletonList(
+				new Request(null, userHandle)), 1, false);
+	}
+
+	public synchronized void add(String packageName,
+			UserHandle userHandle) {
+		Request request = new Request(packageName, userHandle);
+		++pendingEvents;
+		++totalEvents;
+		for (Request r : pending) {
+			if (r.covers(request)) {
+				return;
+			}
+		}
+		// Remove all pending requests the new one supersedes.
+		for (Iterator<Request> it = pending.iterator(); it.hasNext(); ) {
+			if (request.covers(it.next())) {
+				it.remove();
+			}
+		}
+		pending.add(request);
+	}
+
+	/**
+	 * Requests to resolve the labels of all indexed apps again.
+	 */
+	public synchronized void addRelabel() {
+		++pendingRelabels;
+		++totalEvents;
+	}
+
+	public synchronized boolean isEmpty() {
+		return pending.isEmpty() && pendingRelabels == 0;
+	}
+
+	/**
+	 * Removes and returns all pending requests as one batch or
+	 * null if there are none. Relabel requests are returned in a
+	 * batch of their own before the other requests.
+	 */
+	public synchronized Batch poll() {
+		if (pendingRelabels > 0) {
+			if (pending.contains(new Request(null, null))) {
+				// A full index resolves all labels anyway.
+				pendingEvents += pendingRelabels;
+				pendingRelabels = 0;
+			} else {
+				Batch batch = new Batch(Collections.emptyList(),
+						pendingRelabels, true);
+				pendingRelabels = 0;
+				return count(batch);
+			}
+		}
+		if (pending.isEmpty()) {
+			return null;
+		}
+		Batch batch = new Batch(new ArrayList<>(pending), pendingEvents,
+				false);
+		pending.clear();
+		pendingEvents = 0;
+		return count(batch);
+	}
+
+	private Batch count(Batch batch) {
+		totalCoalesced += batch.getCoalesced();
+		++totalBatches;
+		return batch;
+	}
+
+	public synchronized int getTotalEvents() {
+		return totalEvents;
+	}
+
+	public synchronized int getCoalescedEvents() {
+		return totalCoalesced;
+	}
+
+	public synchronized int getBatches() {
+		return totalBatches;
+	}
+}
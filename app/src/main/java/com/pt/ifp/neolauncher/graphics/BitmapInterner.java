@@ -0,0 +1,165 @@
+package com.pt.ifp.neolauncher.graphics;
+
+import android.graphics.Bitmap;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.WeakHashMap;
+
+/**
+ * Makes icons with identical pixels share the same bitmap instance.
+ *
+ * Bitmaps are found by a hash of their pixels and compared with
+ * Bitmap.sameAs() to rule out collisions. Bitmaps are only weakly
+ * referenced so they can still be collected when no icon uses them.
+ */
+public class BitmapInterner {
+	private final HashMap<Integer, List<WeakReference<Bitmap>>> bitmaps =
+			new HashMap<>();
+	// Bitmaps that intern() returns as they are without hashing and
+	// their hash, or null for excluded bitmaps. Bitmap doesn't
+	// override equals(), so this is an identity map.
+	private final WeakHashMap<Bitmap, Integer> known = new WeakHashMap<>();
+	// Guards row, so pixels are hashed without allocating.
+	private final Object hashLock = new Object();
+
+	private int[] row = new int[0];
+
+	private int lookups;
+	private int shared;
+	private long bytesSaved;
+
+	/**
+	 * Returns a bitmap with the same pixels as the given one that
+	 * was interned before, or the given bitmap if there is none.
+	 */
+	public Bitmap intern(Bitmap bitmap) {
+		if (bitmap == null || bitmap.isRecycled()) {
+			return bitmap;
+		}
+		synchronized (this) {
+			if (known.containsKey(bitmap)) {
+				return bitmap;
+			}
+		}
+		// Hash outside the lock.
+		int hash = hash(bitmap);
+		synchronized (this) {
+			if (++lookups % 256 == 0) {
+				purge();
+			}
+			List<WeakReference<Bitmap>> candidates = bitmaps.get(hash);
+			if (candidates == null) {
+				candidates = new ArrayList<>(1);
+				bitmaps.put(hash, candidates);
+			}
+			Iterator<WeakReference<Bitmap>> it = candidates.iterator();
+			while (it.hasNext()) {
+				Bitmap candidate = it.next().get();
+				if (candidate == null) {
+					it.remove();
+				} else if (candidate == bitmap) {
+					return bitmap;
+				} else if (candidate.sameAs(bitmap)) {
+					++shared;
+					bytesSaved += bitmap.getByteCount();
+					return candidate;
+				}
+			}
+			candidates.add(new WeakReference<>(bitmap));
+			known.put(bitmap, hash);
+			return bitmap;
+		}
+	}
+
+	/**
+	 * Makes intern() return the given bitmap as it is, e.g. for a
+	 * placeholder that must never be shared with an icon.
+	 */
+	public synchronized void exclude(Bitmap bitmap) {
+		if (bitmap != null) {
+			known.put(bitmap, null);
+		}
+	}
+
+	/**
+	 * Forgets the given bitmap so it isn't handed out anymore,
+	 * e.g. because it's going to be drawn into again.
+	 */
+	public synchronized void remove(Bitmap bitmap) {
+		// Uses the hash from intern() as the pixels may have changed.
+		Integer hash = bitmap != null ? known.remove(bitmap) : null;
+		if (hash == null) {
+			return;
+		}
+		List<WeakReference<Bitmap>> candidates = bitmaps.get(hash);
+		if (candidates == null) {
+			return;
+		}
+		Iterator<WeakReference<Bitmap>> it = candidates.iterator();
+		while (it.hasNext()) {
+			Bitmap candidate = it.next().get();
+			if (candidate == null || candidate == bitmap) {
+				it.remove();
+			}
+		}
+		if (candidates.isEmpty()) {
+			bitmaps.remove(hash);
+		}
+	}
+
+	/**
+	 * Returns the number of bitmaps that were replaced by an
+	 * already interned one.
+	 */
+	public synchronized int getSharedCount() {
+		return shared;
+	}
+
+	/**
+	 * Returns the number of bytes of all bitmaps that were replaced
+	 * by an already interned one.
+	 */
+	public synchronized long getBytesSaved() {
+		return bytesSaved;
+	}
+
+	private void purge() {
+		Iterator<List<WeakReference<Bitmap>>> it =
+				bitmaps.values().iterator();
+		while (it.hasNext()) {
+			List<WeakReference<Bitmap>> candidates = it.next();
+			Iterator<WeakReference<Bitmap>> refs = candidates.iterator();
+			while (refs.hasNext()) {
+				if (refs.next().get() == null) {
+					refs.remove();
+				}
+			}
+			if (candidates.isEmpty()) {
+				it.remove();
+			}
+		}
+	}
+
+	// Hashes row by row so there's no buffer as large as the bitmap.
+	private int hash(Bitmap bitmap) {
+		int width = bitmap.getWidth();
+		int height = bitmap.getHeight();
+		int hash = 1;
+		synchronized (hashLock) {
+			if (row.length < width) {
+				row = new int[width];
+			}
+			for (int y = 0; y < height; ++y) {
+				bitmap.getPixels(row, 0, width, 0, y, width, 1);
+				for (int x = 0; x < width; ++x) {
+					hash = hash * 31 + row[x];
+				}
+			}
+		}
+		return (hash * 31 + width) * 31 + height;
+	}
+}
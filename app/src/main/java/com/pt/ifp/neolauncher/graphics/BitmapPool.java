@@ -0,0 +1,114 @@
+package com.pt.ifp.neolauncher.graphics;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Keeps unused icon bitmaps so they can be drawn into again instead
+ * of allocating new ones.
+ *
+ * Bitmaps are bucketed by size and config. Only mutable bitmaps
+ * that nothing else references anymore may be released into the
+ * pool.
+ */
+public class BitmapPool {
+	private final HashMap<Long, ArrayList<Bitmap>> buckets = new HashMap<>();
+	// Released bitmaps must not be shared anymore.
+	private final BitmapInterner interner;
+
+	private long maxBytes = 4L * 1024L * 1024L;
+	private long bytes;
+	private int hits;
+	private int misses;
+
+	public BitmapPool(BitmapInterner interner) {
+		this.interner = interner;
+	}
+
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		if (bytes > maxBytes) {
+			clear();
+		}
+	}
+
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns a transparent bitmap of the given size and config,
+	 * either from the pool or a new one.
+	 */
+	public Bitmap get(int width, int height, Bitmap.Config config) {
+		Bitmap bitmap = null;
+		synchronized (this) {
+			ArrayList<Bitmap> bucket = buckets.get(
+					getKey(width, height, config));
+			if (bucket != null && !bucket.isEmpty()) {
+				bitmap = bucket.remove(bucket.size() - 1);
+				bytes -= bitmap.getByteCount();
+				++hits;
+			} else {
+				++misses;
+			}
+		}
+		if (bitmap == null) {
+			return Bitmap.createBitmap(width, height, config);
+		}
+		bitmap.eraseColor(Color.TRANSPARENT);
+		return bitmap;
+	}
+
+	/**
+	 * Puts a bitmap back into the pool. The caller must make sure
+	 * the bitmap isn't used anywhere else anymore.
+	 */
+	public void release(Bitmap bitmap) {
+		if (bitmap == null ||
+				bitmap.isRecycled() ||
+				!bitmap.isMutable() ||
+				bitmap.getConfig() == null) {
+			return;
+		}
+		if (interner != null) {
+			interner.remove(bitmap);
+		}
+		synchronized (this) {
+			add(bitmap);
+		}
+	}
+
+	public synchronized void clear() {
+		buckets.clear();
+		bytes = 0;
+	}
+
+	private void add(Bitmap bitmap) {
+		if (bytes + bitmap.getByteCount() > maxBytes) {
+			return;
+		}
+		long key = getKey(bitmap.getWidth(), bitmap.getHeight(),
+				bitmap.getConfig());
+		ArrayList<Bitmap> bucket = buckets.get(key);
+		if (bucket == null) {
+			bucket = new ArrayList<>();
+			buckets.put(key, bucket);
+		}
+		bucket.add(bitmap);
+		bytes += bitmap.getByteCount();
+	}
+
+	private static long getKey(int width, int height, Bitmap.Config config) {
+		return ((long) width << 32) |
+				((long) height << 8) |
+				config.ordinal();
+	}
+}
@@ -15,6 +15,13 @@ public class CanvasPieMenu extends PieMenu {
 	public static class CanvasIcon extends PieMenu.Icon {
 		public final Rect rect = new Rect();
 		public Bitmap bitmap;
+		// Larger version of bitmap for magnified icons, may be null.
+		public Bitmap largeBitmap;
+		// Where bitmap is in the icon atlas, may be null.
+		public IconAtlas.Region atlasRegion;
+		// True if bitmap has been replaced by a placeholder to save
+		// memory, see IconBitmapCache.
+		public boolean evicted;
 
 		private double smoothedSize;
 		private int smoothedX;
@@ -24,6 +31,30 @@ public class CanvasPieMenu extends PieMenu {
 			this.bitmap = bitmap;
 		}
 
+		/**
+		 * Returns the bitmap that fits the given size best.
+		 */
+		public Bitmap getBitmap(int size) {
+			Bitmap large = largeBitmap;
+			return large != null && size > bitmap.getWidth()
+					? large
+					: bitmap;
+		}
+
+		/**
+		 * Draws this icon into the given rect. Uses the icon atlas
+		 * when it has the best fitting bitmap.
+		 */
+		public void drawIcon(Canvas canvas, Rect dst, Paint paint) {
+			Bitmap b = getBitmap(dst.width());
+			IconAtlas.Region region = atlasRegion;
+			if (region != null && b == bitmap) {
+				canvas.drawBitmap(region.page, region.rect, dst, paint);
+			} else {
+				canvas.drawBitmap(b, null, dst, paint);
+			}
+		}
+
 		void draw(Canvas canvas) {
 			draw(canvas, size, x, y);
 		}
@@ -51,7 +82,7 @@ public class CanvasPieMenu extends PieMenu {
 			int top = centerY - s;
 			s <<= 1;
 			rect.set(left, top, left + s, top + s);
-			canvas.drawBitmap(bitmap, null, rect, paint);
+			drawIcon(canvas, rect, paint);
 		}
 
 		private void initSmoothing() {
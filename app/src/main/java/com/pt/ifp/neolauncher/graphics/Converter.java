@@ -3,6 +3,7 @@ package com.pt.ifp.neolauncher.graphics;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.PixelFormat;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
@@ -10,16 +11,36 @@ import android.os.Build;
 public class Converter {
 	// Limit the icon size, as some apps incorrectly use too large resources
 	// for their icon.
-	private static final int MAX_ICON_SIZE = 256;
+	public static final int MAX_ICON_SIZE = 256;
 
 	public static Bitmap getBitmapFromDrawable(Drawable drawable) {
+		return getBitmapFromDrawable(drawable, MAX_ICON_SIZE);
+	}
+
+	/**
+	 * Returns a bitmap of the given drawable that is no larger than
+	 * maxSize in either dimension.
+	 */
+	public static Bitmap getBitmapFromDrawable(Drawable drawable,
+			int maxSize) {
+		return getBitmapFromDrawable(drawable, maxSize, null);
+	}
+
+	/**
+	 * Like getBitmapFromDrawable(Drawable, int) but takes the bitmap
+	 * to draw into from the given pool if possible. Opaque drawables
+	 * get a bitmap without alpha channel.
+	 */
+	public static Bitmap getBitmapFromDrawable(Drawable drawable,
+			int maxSize, BitmapPool pool) {
+		maxSize = Math.min(MAX_ICON_SIZE, maxSize);
 		if (drawable instanceof BitmapDrawable) {
 			Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
 			int max = Math.max(bitmap.getWidth(), bitmap.getHeight());
-			if (max <= MAX_ICON_SIZE) {
+			if (max <= maxSize) {
 				return bitmap;
 			}
-			float f = (float) MAX_ICON_SIZE / max;
+			float f = (float) maxSize / max;
 			return Bitmap.createScaledBitmap(
 					bitmap,
 					Math.round(bitmap.getWidth() * f),
@@ -28,10 +49,15 @@ public class Converter {
 		}
 		int width = drawable.getIntrinsicWidth();
 		int height = drawable.getIntrinsicHeight();
-		Bitmap bitmap = Bitmap.createBitmap(
-				Math.min(MAX_ICON_SIZE, width > 0 ? width : 48),
-				Math.min(MAX_ICON_SIZE, height > 0 ? height : 48),
-				Bitmap.Config.ARGB_8888);
+		width = Math.min(maxSize, width > 0 ? width : 48);
+		height = Math.min(maxSize, height > 0 ? height : 48);
+		// Takes half the memory of ARGB_8888.
+		Bitmap.Config config = drawable.getOpacity() == PixelFormat.OPAQUE
+				? Bitmap.Config.RGB_565
+				: Bitmap.Config.ARGB_8888;
+		Bitmap bitmap = pool != null
+				? pool.get(width, height, config)
+				: Bitmap.createBitmap(width, height, config);
 		Canvas canvas = new Canvas(bitmap);
 		drawable.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
 		drawable.draw(canvas);
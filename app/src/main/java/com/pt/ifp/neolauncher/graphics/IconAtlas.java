@@ -0,0 +1,291 @@
+package com.pt.ifp.neolauncher.graphics;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Packs icon bitmaps into a few pages so all icons can be drawn from
+ * the same textures.
+ *
+ * Pages are sized for the number of icons and laid out again when
+ * that number outgrows them or drops to less than half. Every key
+ * gets a fixed cell. Cells of keys that are gone are reused, so a
+ * package change only redraws the pages of that package.
+ *
+ * A page that has been handed out is never drawn into again because
+ * the RenderThread may be uploading it. Changed pages are copied
+ * and the regions of all their cells are replaced.
+ *
+ * The pages take about as much memory as the list bitmaps of all
+ * icons, whatever the page size. That's why their size is reserved
+ * in the IconBitmapCache: icons whose bitmap is evicted are drawn
+ * from the atlas, so the atlas replaces the list bitmaps rather than
+ * duplicating them. Pages have no alpha channel when no icon needs
+ * one, which halves their size.
+ */
+public class IconAtlas {
+	// Small enough that copying a page for a changed cell is cheap
+	// and within the maximum texture size of all devices. A larger
+	// page wouldn't save memory, only some slack of the last page.
+	private static final int MAX_PAGE_SIZE = 1024;
+	// Keeps filtering from bleeding into neighbouring cells.
+	private static final int GUTTER = 1;
+
+	public static class Region {
+		public final Bitmap page;
+		public final Rect rect;
+
+		private Region(Bitmap page, Rect rect) {
+			this.page = page;
+			this.rect = rect;
+		}
+	}
+
+	private static class Cell {
+		private final int page;
+		private final int left;
+		private final int top;
+
+		private Region region;
+		// Weak so evicted icon bitmaps can be collected.
+		private WeakReference<Bitmap> source;
+
+		private Cell(int page, int left, int top) {
+			this.page = page;
+			this.left = left;
+			this.top = top;
+		}
+	}
+
+	private final Paint clearPaint = new Paint();
+	private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+	private final ArrayList<Bitmap> pages = new ArrayList<>();
+	private final ArrayList<Cell> freeCells = new ArrayList<>();
+	private final HashMap<Object, Cell> cells = new HashMap<>();
+
+	private Bitmap.Config config = Bitmap.Config.ARGB_8888;
+	private int cellSize;
+	private int capacity;
+	private long bytes;
+
+	public IconAtlas() {
+		clearPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.CLEAR));
+	}
+
+	/**
+	 * Makes the atlas contain exactly the bitmaps of the given icons.
+	 * Must not run concurrently with itself.
+	 *
+	 * @param icons icons by a stable key
+	 * @param iconSize maximum size of the icon bitmaps
+	 * @param placeholder icons with this bitmap keep their old cell
+	 * @return the region of every icon, to be assigned on the UI thread
+	 */
+	public synchronized Map<CanvasPieMenu.CanvasIcon, Region> update(
+			Map<?, ? extends CanvasPieMenu.CanvasIcon> icons,
+			int iconSize,
+			Bitmap placeholder) {
+		HashMap<Object, Cell> oldCells = null;
+		int needed = icons.size();
+		Bitmap.Config newConfig = needsAlpha(icons, placeholder)
+				? Bitmap.Config.ARGB_8888
+				: Bitmap.Config.RGB_565;
+		if (iconSize + GUTTER * 2 != cellSize) {
+			clear();
+			cellSize = iconSize + GUTTER * 2;
+		} else if (needed > capacity ||
+				(needed < capacity / 2 && capacity > 16) ||
+				newConfig != config) {
+			// Copy what is there into the new layout.
+			oldCells = new HashMap<>(cells);
+			clear();
+		}
+		config = newConfig;
+		boolean fresh = pages.isEmpty();
+		if (fresh) {
+			layout(needed + needed / 8 + 1);
+		}
+		// Free the cells of all icons that are gone first so they
+		// can be reused right away.
+		Iterator<Map.Entry<Object, Cell>> it = cells.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Object, Cell> entry = it.next();
+			if (!icons.containsKey(entry.getKey())) {
+				freeCells.add(entry.getValue());
+				it.remove();
+			}
+		}
+		// Find all cells that need to be drawn and their pages.
+		IdentityHashMap<Cell, Object> draws = new IdentityHashMap<>();
+		HashSet<Integer> changedPages = new HashSet<>();
+		for (Map.Entry<?, ? extends CanvasPieMenu.CanvasIcon> entry :
+				icons.entrySet()) {
+			Object key = entry.getKey();
+			Bitmap bitmap = entry.getValue().bitmap;
+			Cell cell = cells.get(key);
+			Object source;
+			if (bitmap == placeholder) {
+				// Evicted or still loading, keep what's there.
+				Cell oldCell = oldCells != null ? oldCells.get(key) : null;
+				if (cell != null || oldCell == null ||
+						oldCell.region == null) {
+					continue;
+				}
+				source = oldCell;
+			} else if (bitmap == null ||
+					bitmap.getWidth() > iconSize ||
+					bitmap.getHeight() > iconSize) {
+				continue;
+			} else if (cell != null && cell.region != null &&
+					cell.source.get() == bitmap) {
+				continue;
+			} else {
+				source = bitmap;
+			}
+			if (cell == null) {
+				if ((cell = allocate()) == null) {
+					continue;
+				}
+				cells.put(key, cell);
+			}
+			draws.put(cell, source);
+			changedPages.add(cell.page);
+		}
+		if (!fresh) {
+			for (int page : changedPages) {
+				copyPage(page);
+			}
+		}
+		for (Map.Entry<Cell, Object> entry : draws.entrySet()) {
+			draw(entry.getKey(), entry.getValue());
+		}
+		IdentityHashMap<CanvasPieMenu.CanvasIcon, Region> regions =
+				new IdentityHashMap<>(icons.size());
+		for (Map.Entry<?, ? extends CanvasPieMenu.CanvasIcon> entry :
+				icons.entrySet()) {
+			Cell cell = cells.get(entry.getKey());
+			if (cell != null && cell.region != null) {
+				regions.put(entry.getValue(), cell.region);
+			}
+		}
+		return regions;
+	}
+
+	public synchronized int getPageCount() {
+		return pages.size();
+	}
+
+	/**
+	 * Returns the memory used by all pages.
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	private boolean needsAlpha(
+			Map<?, ? extends CanvasPieMenu.CanvasIcon> icons,
+			Bitmap placeholder) {
+		for (Map.Entry<?, ? extends CanvasPieMenu.CanvasIcon> entry :
+				icons.entrySet()) {
+			Bitmap bitmap = entry.getValue().bitmap;
+			if (bitmap == placeholder) {
+				// The cell is all that's left of the icon.
+				if (config == Bitmap.Config.ARGB_8888 &&
+						cells.containsKey(entry.getKey())) {
+					return true;
+				}
+			} else if (bitmap != null && bitmap.hasAlpha()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Creates pages with room for at least the given number of cells.
+	private void layout(int count) {
+		int maxPerRow = Math.max(1, MAX_PAGE_SIZE / cellSize);
+		while (capacity < count) {
+			int remaining = Math.min(count - capacity,
+					maxPerRow * maxPerRow);
+			int perRow = Math.min(maxPerRow,
+					(int) Math.ceil(Math.sqrt(remaining)));
+			int rows = (remaining + perRow - 1) / perRow;
+			Bitmap page = Bitmap.createBitmap(perRow * cellSize,
+					rows * cellSize, config);
+			int index = pages.size();
+			pages.add(page);
+			bytes += page.getByteCount();
+			// Reversed so cells are taken in order.
+			for (int n = perRow * rows - 1; n > -1; --n) {
+				freeCells.add(new Cell(index,
+						(n % perRow) * cellSize,
+						(n / perRow) * cellSize));
+			}
+			capacity += perRow * rows;
+		}
+	}
+
+	private Cell allocate() {
+		int last = freeCells.size() - 1;
+		return last > -1 ? freeCells.remove(last) : null;
+	}
+
+	// Replaces a page that may be in use by a copy, and all regions
+	// on it by regions on the copy.
+	private void copyPage(int index) {
+		Bitmap copy = pages.get(index).copy(config, true);
+		pages.set(index, copy);
+		for (Cell cell : cells.values()) {
+			if (cell.page == index && cell.region != null) {
+				cell.region = new Region(copy, cell.region.rect);
+			}
+		}
+	}
+
+	// Draws a bitmap or the content of a cell of an old layout.
+	private void draw(Cell cell, Object source) {
+		Canvas canvas = new Canvas(pages.get(cell.page));
+		canvas.drawRect(cell.left, cell.top,
+				cell.left + cellSize, cell.top + cellSize, clearPaint);
+		int left = cell.left + GUTTER;
+		int top = cell.top + GUTTER;
+		Rect rect;
+		if (source instanceof Cell) {
+			Cell oldCell = (Cell) source;
+			Region oldRegion = oldCell.region;
+			rect = new Rect(left, top,
+					left + oldRegion.rect.width(),
+					top + oldRegion.rect.height());
+			canvas.drawBitmap(oldRegion.page, oldRegion.rect, rect, null);
+			cell.source = oldCell.source;
+		} else {
+			Bitmap bitmap = (Bitmap) source;
+			rect = new Rect(left, top,
+					left + bitmap.getWidth(),
+					top + bitmap.getHeight());
+			canvas.drawBitmap(bitmap, null, rect, paint);
+			cell.source = new WeakReference<>(bitmap);
+		}
+		cell.region = new Region(pages.get(cell.page), rect);
+	}
+
+	private void clear() {
+		pages.clear();
+		freeCells.clear();
+		cells.clear();
+		capacity = 0;
+		bytes = 0;
+	}
+}
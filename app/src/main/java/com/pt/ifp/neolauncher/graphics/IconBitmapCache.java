@@ -0,0 +1,250 @@
+package com.pt.ifp.neolauncher.graphics;
+
+import android.graphics.Bitmap;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the icon bitmaps of the app list within a memory budget.
+ *
+ * Icons are kept in access order. When the budget is exceeded,
+ * the least recently drawn icons that aren't pinned get their
+ * bitmap replaced by a placeholder until they're drawn again.
+ * Bitmaps that no icon uses anymore, because they were evicted or
+ * replaced by a new snapshot, are retired. They go into a BitmapPool
+ * with releaseRetired() once nothing can refer to them anymore.
+ * Main thread only.
+ */
+public class IconBitmapCache {
+	// Icons in access order with their accounted bitmap.
+	private final LinkedHashMap<CanvasPieMenu.CanvasIcon, Bitmap> icons =
+			new LinkedHashMap<>(64, .75f, true);
+	// Number of icons that use a bitmap, since bitmaps are shared.
+	private final IdentityHashMap<Bitmap, Integer> users =
+			new IdentityHashMap<>();
+	// Unused bitmaps that may still be referenced by work in flight.
+	private final Set<Bitmap> retired = Collections.newSetFromMap(
+			new IdentityHashMap<>());
+	private final BitmapPool pool;
+	private final BitmapInterner interner;
+	private final long maxBytes = Runtime.getRuntime().maxMemory() / 16;
+
+	private Bitmap placeholder;
+	private long bytes;
+	private long reservedBytes;
+	private int hits;
+	private int misses;
+	private int evictions;
+
+	public IconBitmapCache(BitmapPool pool, BitmapInterner interner) {
+		this.pool = pool;
+		this.interner = interner;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Sets how much of the budget is taken by the icon atlas.
+	 * Evicted icons are still drawn from there.
+	 */
+	public void setReservedBytes(long reservedBytes) {
+		this.reservedBytes = reservedBytes;
+	}
+
+	public int getHits() {
+		return hits;
+	}
+
+	public int getMisses() {
+		return misses;
+	}
+
+	public int getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Starts over with the given icons. Icons that show the
+	 * placeholder aren't accounted for. Bitmaps of the previous icons
+	 * that none of the given icons use are retired.
+	 */
+	public void reset(Collection<? extends CanvasPieMenu.CanvasIcon> all,
+			Bitmap placeholder) {
+		this.placeholder = placeholder;
+		Set<Bitmap> previous = Collections.newSetFromMap(
+				new IdentityHashMap<>());
+		previous.addAll(users.keySet());
+		icons.clear();
+		users.clear();
+		bytes = 0;
+		for (CanvasPieMenu.CanvasIcon icon : all) {
+			add(icon);
+		}
+		for (Bitmap bitmap : previous) {
+			if (!users.containsKey(bitmap)) {
+				retire(bitmap);
+			}
+		}
+	}
+
+	/**
+	 * Accounts for an icon whose bitmap has been (re-)loaded.
+	 */
+	public void add(CanvasPieMenu.CanvasIcon icon) {
+		Bitmap bitmap = icon.bitmap;
+		if (icon.evicted || bitmap == null || bitmap == placeholder) {
+			return;
+		}
+		Bitmap old = icons.put(icon, bitmap);
+		if (old != null && removeUser(old) && old != bitmap) {
+			retire(old);
+		}
+		retired.remove(bitmap);
+		Integer count = users.get(bitmap);
+		if (count == null) {
+			// Shared bitmaps only take memory once.
+			bytes += bitmap.getByteCount();
+			count = 0;
+		}
+		users.put(bitmap, count + 1);
+	}
+
+	/**
+	 * Marks the given icon as recently drawn.
+	 *
+	 * @return false if the bitmap of the icon needs to be reloaded
+	 */
+	public boolean touch(CanvasPieMenu.CanvasIcon icon) {
+		if (!retired.isEmpty()) {
+			// Still drawn, e.g. from a list that is about to be
+			// replaced.
+			retired.remove(icon.bitmap);
+		}
+		if (icons.get(icon) != null) {
+			++hits;
+			return true;
+		}
+		if (!icon.evicted) {
+			// Still loading or not tracked.
+			return true;
+		}
+		if (icon.atlasRegion != null) {
+			// Can still be drawn from the atlas.
+			return true;
+		}
+		++misses;
+		return false;
+	}
+
+	/**
+	 * Puts back the bitmap of an evicted icon.
+	 */
+	public void reload(CanvasPieMenu.CanvasIcon icon, Bitmap bitmap) {
+		if (!icon.evicted) {
+			return;
+		}
+		icon.bitmap = bitmap;
+		icon.evicted = false;
+		add(icon);
+	}
+
+	/**
+	 * Evicts the least recently drawn icons until the budget is met.
+	 *
+	 * @param pinned icons whose bitmaps must be kept
+	 */
+	public void trim(Collection<? extends CanvasPieMenu.CanvasIcon> pinned) {
+		if (bytes + reservedBytes <= maxBytes || placeholder == null) {
+			return;
+		}
+		// Match by bitmap because pinned icons may be copies.
+		Set<Bitmap> pinnedBitmaps = Collections.newSetFromMap(
+				new IdentityHashMap<>());
+		for (CanvasPieMenu.CanvasIcon icon : pinned) {
+			if (icon != null) {
+				pinnedBitmaps.add(icon.bitmap);
+			}
+		}
+		Iterator<Map.Entry<CanvasPieMenu.CanvasIcon, Bitmap>> it =
+				icons.entrySet().iterator();
+		while (bytes + reservedBytes > maxBytes && it.hasNext()) {
+			Map.Entry<CanvasPieMenu.CanvasIcon, Bitmap> entry = it.next();
+			Bitmap bitmap = entry.getValue();
+			if (pinnedBitmaps.contains(bitmap)) {
+				continue;
+			}
+			it.remove();
+			CanvasPieMenu.CanvasIcon icon = entry.getKey();
+			icon.bitmap = placeholder;
+			icon.evicted = true;
+			++evictions;
+			if (removeUser(bitmap)) {
+				retire(bitmap);
+			}
+		}
+	}
+
+	/**
+	 * Puts all retired bitmaps that aren't used by a tracked or
+	 * a given icon into the pool. Must only be called when no
+	 * work that may have picked up a retired bitmap is in flight.
+	 *
+	 * @param keep icons whose bitmaps must be kept, may be copies
+	 */
+	public void releaseRetired(
+			Collection<? extends CanvasPieMenu.CanvasIcon> keep) {
+		if (retired.isEmpty()) {
+			return;
+		}
+		for (CanvasPieMenu.CanvasIcon icon : keep) {
+			if (icon != null) {
+				retired.remove(icon.bitmap);
+			}
+		}
+		for (Bitmap bitmap : retired) {
+			if (!users.containsKey(bitmap)) {
+				pool.release(bitmap);
+			}
+		}
+		retired.clear();
+	}
+
+	// Stops handing out the bitmap as a shared one right away, but
+	// keeps it out of the pool until releaseRetired().
+	private void retire(Bitmap bitmap) {
+		if (bitmap == placeholder) {
+			return;
+		}
+		if (interner != null) {
+			interner.remove(bitmap);
+		}
+		retired.add(bitmap);
+	}
+
+	// Returns true if the bitmap isn't used by any icon anymore.
+	private boolean removeUser(Bitmap bitmap) {
+		Integer count = users.get(bitmap);
+		if (count == null) {
+			return false;
+		}
+		if (count > 1) {
+			users.put(bitmap, count - 1);
+			return false;
+		}
+		users.remove(bitmap);
+		bytes -= bitmap.getByteCount();
+		return true;
+	}
+}
@@ -21,43 +21,98 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import com.pt.ifp.neolauncher.io.IconMappings;
+import com.pt.ifp.neolauncher.io.IconPackIndex;
 
 public class IconPack {
 	public static class Pack {
 		public final String packageName;
 		public final String name;
 		public final Resources resources;
+		public final long lastUpdateTime;
 
-		public Pack(String packageName, String name, Resources resources) {
+		public Pack(String packageName, String name, Resources resources,
+				long lastUpdateTime) {
 			this.packageName = packageName;
 			this.name = name;
 			this.resources = resources;
+			this.lastUpdateTime = lastUpdateTime;
 		}
 
-		public Drawable getDrawable(String drawableName) {
-			if (drawableName == null) {
-				return null;
+		// Resource ids by drawable name, 0 if the pack doesn't have
+		// the drawable so missing names aren't looked up again.
+		private final HashMap<String, Integer> resourceIds =
+				new HashMap<>();
+
+		private IconPackIndex index;
+
+		/**
+		 * Returns the compiled appfilter.xml of this pack. Builds it
+		 * if this version of the pack hasn't been compiled yet.
+		 */
+		public synchronized IconPackIndex getIndex(Context context) {
+			if (index == null) {
+				index = IconPackIndex.load(context, packageName,
+						lastUpdateTime);
 			}
-			@SuppressLint("DiscouragedApi")
-			int id = resources.getIdentifier(drawableName, "drawable",
-					packageName);
+			if (index == null) {
+				LinkedHashMap<String, String> map = new LinkedHashMap<>();
+				loadComponentAndDrawableNames(map);
+				index = IconPackIndex.build(context, packageName,
+						lastUpdateTime, map, this::getResourceId);
+			}
+			return index;
+		}
+
+		public Drawable getDrawable(int id) {
 			try {
-				return id > 0 ? resources.getDrawable(id) : null;
+				return id != 0 ? resources.getDrawable(id) : null;
 			} catch (NotFoundException e) {
 				return null;
 			}
 		}
 
-		public ArrayList<String> getDrawableNames() {
-			LinkedHashMap<String, String> map = new LinkedHashMap<>();
-			loadComponentAndDrawableNames(map);
-			return new ArrayList<>(new LinkedHashSet<>(map.values()));
+		public Drawable getDrawable(String drawableName) {
+			return drawableName != null
+					? getDrawable(getResourceId(drawableName))
+					: null;
+		}
+
+		/**
+		 * Returns the resource id of the given drawable or 0 if the
+		 * pack doesn't have it. Every name is only resolved once.
+		 */
+		public synchronized int getResourceId(String drawableName) {
+			Integer id = resourceIds.get(drawableName);
+			if (id == null) {
+				id = getIdentifier(drawableName);
+				resourceIds.put(drawableName, id);
+			}
+			return id;
+		}
+
+		/**
+		 * Returns all drawable names of appfilter.xml. Takes their
+		 * resource ids from the index as well.
+		 */
+		public ArrayList<String> getDrawableNames(Context context) {
+			IconPackIndex index = getIndex(context);
+			int count = index.getDrawableCount();
+			ArrayList<String> names = new ArrayList<>(count);
+			synchronized (this) {
+				for (int i = 0; i < count; ++i) {
+					String name = index.getDrawableName(i);
+					names.add(name);
+					resourceIds.put(name, index.getResourceId(i));
+				}
+			}
+			return names;
 		}
 
 		public void loadComponentAndDrawableNames(
@@ -106,6 +161,12 @@ public class IconPack {
 				}
 			}
 		}
+
+		@SuppressLint("DiscouragedApi")
+		private int getIdentifier(String drawableName) {
+			return resources.getIdentifier(drawableName, "drawable",
+					packageName);
+		}
 	}
 
 	public static class PackAndDrawable implements Serializable {
@@ -119,14 +180,16 @@ public class IconPack {
 	}
 
 	public final LinkedHashMap<String, Pack> packs = new LinkedHashMap<>();
-	public final LinkedHashMap<String, String> componentToDrawableNames =
-			new LinkedHashMap<>();
 
 	private final HashMap<ComponentName, PackAndDrawable> mappings =
 			new HashMap<>();
 
 	private PackageManager packageManager;
 	private IconPack.Pack selectedPack;
+	private IconPackIndex selectedIndex;
+	private boolean selected = false;
+	// Packages with a launcher activity, null if unknown.
+	private volatile Set<String> launchablePackages;
 
 	public boolean hasPacks() {
 		return !packs.isEmpty();
@@ -158,10 +221,32 @@ public class IconPack {
 		mappings.clear();
 	}
 
+	/**
+	 * Sets the packages that have a launcher activity so getIcon()
+	 * doesn't need to ask the package manager for every component.
+	 */
+	public void setLaunchablePackages(Set<String> packageNames) {
+		launchablePackages = Collections.unmodifiableSet(packageNames);
+	}
+
 	public String getSelectedIconPackageName() {
 		return selectedPack != null ? selectedPack.packageName : null;
 	}
 
+	/**
+	 * Returns true if selectPack() has already been called for the
+	 * given pack and it was found. Null or empty means no pack.
+	 */
+	public boolean isSelected(String packageName) {
+		if (!selected) {
+			return false;
+		}
+		String selectedPackageName = getSelectedIconPackageName();
+		return packageName == null || packageName.isEmpty()
+				? selectedPackageName == null
+				: packageName.equals(selectedPackageName);
+	}
+
 	public HashMap<String, String> getIconPacks() {
 		HashMap<String, String> map = new HashMap<>();
 		for (Pack pack : packs.values()) {
@@ -171,6 +256,9 @@ public class IconPack {
 	}
 
 	public void updatePacks(PackageManager pm) {
+		// Keep the packs that haven't changed so their resources
+		// and indices don't need to be loaded again.
+		HashMap<String, Pack> oldPacks = new HashMap<>(packs);
 		packs.clear();
 		for (String theme : new String[]{
 				"org.adw.launcher.THEMES",
@@ -180,11 +268,19 @@ public class IconPack {
 					pm, new Intent(theme))) {
 				String packageName = info.activityInfo.packageName;
 				try {
-					packs.put(packageName, new Pack(
-							packageName,
-							pm.getApplicationLabel(getApplicationInfo(
-									pm, packageName)).toString(),
-							pm.getResourcesForApplication(packageName)));
+					long lastUpdateTime = pm.getPackageInfo(packageName,
+							0).lastUpdateTime;
+					Pack pack = oldPacks.get(packageName);
+					if (pack == null ||
+							pack.lastUpdateTime != lastUpdateTime) {
+						pack = new Pack(
+								packageName,
+								pm.getApplicationLabel(getApplicationInfo(
+										pm, packageName)).toString(),
+								pm.getResourcesForApplication(packageName),
+								lastUpdateTime);
+					}
+					packs.put(packageName, pack);
 				} catch (PackageManager.NameNotFoundException e) {
 					// Ignore.
 				}
@@ -192,13 +288,16 @@ public class IconPack {
 		}
 	}
 
-	public void selectPack(PackageManager pm, String packageName) {
+	public void selectPack(Context context, String packageName) {
 		selectedPack = null;
+		selectedIndex = null;
 		packageManager = null;
-		componentToDrawableNames.clear();
-		if (pm == null) {
+		selected = false;
+		if (context == null) {
 			return;
 		}
+		PackageManager pm = context.getPackageManager();
+		selected = true;
 		// Always update because packs may have been added/removed.
 		updatePacks(pm);
 		if (packageName == null || packageName.isEmpty()) {
@@ -208,9 +307,8 @@ public class IconPack {
 		if (selectedPack == null) {
 			return;
 		}
-		// Always reload packages and drawables as the pack may have
-		// been updated.
-		selectedPack.loadComponentAndDrawableNames(componentToDrawableNames);
+		// Only compiled again when the pack has been updated.
+		selectedIndex = selectedPack.getIndex(context);
 		packageManager = pm;
 	}
 
@@ -232,17 +330,47 @@ public class IconPack {
 			return null;
 		}
 		if (drawableName == null) {
-			Intent intent = packageManager.getLaunchIntentForPackage(
-					componentName.getPackageName());
-			if (intent == null) {
+			if (!isLaunchable(componentName.getPackageName())) {
 				return null;
 			}
-			drawableName = componentToDrawableNames.get(
+			int drawable = selectedIndex.findDrawable(
 					componentName.flattenToShortString());
+			return drawable > -1
+					? selectedPack.getDrawable(
+							selectedIndex.getResourceId(drawable))
+					: null;
 		}
 		return selectedPack.getDrawable(drawableName);
 	}
 
+	/**
+	 * Returns a string that identifies the icon pack drawable
+	 * getIcon() would use for the given component. Changes whenever
+	 * the selected pack, the pack's version or a mapping changes.
+	 */
+	public String getIconPackKey(ComponentName componentName) {
+		PackAndDrawable pad = mappings.get(componentName);
+		if (pad != null) {
+			Pack pack = packs.get(pad.packageName);
+			return pack != null
+					? getPackKey(pack) + "/" + pad.drawableName
+					: "";
+		}
+		return selectedPack != null ? getPackKey(selectedPack) : "";
+	}
+
+	private boolean isLaunchable(String packageName) {
+		Set<String> packageNames = launchablePackages;
+		return packageNames != null
+				? packageNames.contains(packageName)
+				: packageManager.getLaunchIntentForPackage(
+						packageName) != null;
+	}
+
+	private static String getPackKey(Pack pack) {
+		return pack.packageName + "@" + pack.lastUpdateTime;
+	}
+
 	private static ComponentName parseComponent(String s) {
 		if (s == null) {
 			return null;
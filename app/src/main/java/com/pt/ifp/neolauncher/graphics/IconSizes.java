@@ -0,0 +1,41 @@
+package com.pt.ifp.neolauncher.graphics;
+
+import android.content.Context;
+
+/**
+ * Sizes icons are rasterized at.
+ *
+ * Every app gets a bitmap in the size of the app list. Icons in the
+ * pie menu are magnified and get an additional, larger bitmap.
+ */
+public class IconSizes {
+	// Size of icons in the app list.
+	public static final int LIST_DP = 48;
+	// Pie icons grow up to 80% of the maximum radius.
+	public static final int LARGE_DP = 96;
+
+	// Set by AppPieView which may override the display density.
+	private static volatile float density;
+
+	/**
+	 * Sets the density the UI is drawn with.
+	 */
+	public static void setDensity(float newDensity) {
+		density = newDensity;
+	}
+
+	public static int getListSize(Context context) {
+		return toPixels(context, LIST_DP);
+	}
+
+	public static int getLargeSize(Context context) {
+		return toPixels(context, LARGE_DP);
+	}
+
+	private static int toPixels(Context context, int dp) {
+		float d = density > 0
+				? density
+				: context.getResources().getDisplayMetrics().density;
+		return Math.min(Converter.MAX_ICON_SIZE, Math.round(dp * d));
+	}
+}
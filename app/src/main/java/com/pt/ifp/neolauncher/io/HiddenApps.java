@@ -11,8 +11,8 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 
 
 public class HiddenApps {
@@ -20,20 +20,24 @@ public class HiddenApps {
 
 	public final HashSet<ComponentName> componentNames = new HashSet<>();
 
+	// Hidden components by package name.
+	private final HashMap<String, HashSet<ComponentName>> packages =
+			new HashMap<>();
+
 	private boolean restored = false;
 
 	public void addAndStore(Context context, ComponentName componentName) {
-		componentNames.add(componentName);
+		add(componentName);
 		store(context);
 	}
 
 	public void removeAndStore(Context context, String packageName) {
-		for (Iterator<ComponentName> it = componentNames.iterator();
-				it.hasNext(); ) {
-			ComponentName cn = it.next();
-			if (cn.getPackageName().equals(packageName)) {
-				it.remove();
-			}
+		HashSet<ComponentName> hidden = packages.remove(packageName);
+		if (hidden == null) {
+			return;
+		}
+		for (ComponentName componentName : hidden) {
+			componentNames.remove(componentName);
 		}
 		store(context);
 	}
@@ -43,6 +47,7 @@ public class HiddenApps {
 			return;
 		}
 		componentNames.clear();
+		packages.clear();
 		try {
 			boolean migrated = false;
 			BufferedReader reader = new BufferedReader(new InputStreamReader(
@@ -57,7 +62,7 @@ public class HiddenApps {
 							context, line);
 				}
 				if (componentName != null) {
-					componentNames.add(componentName);
+					add(componentName);
 				}
 			}
 			reader.close();
@@ -86,4 +91,15 @@ public class HiddenApps {
 			// Ignore.
 		}
 	}
+
+	private void add(ComponentName componentName) {
+		componentNames.add(componentName);
+		String packageName = componentName.getPackageName();
+		HashSet<ComponentName> hidden = packages.get(packageName);
+		if (hidden == null) {
+			hidden = new HashSet<>();
+			packages.put(packageName, hidden);
+		}
+		hidden.add(componentName);
+	}
 }
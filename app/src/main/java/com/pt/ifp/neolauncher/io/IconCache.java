@@ -0,0 +1,360 @@
+package com.pt.ifp.neolauncher.io;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.util.AtomicFile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import com.pt.ifp.neolauncher.content.LauncherItemKey;
+
+public class IconCache {
+	private static final String CACHE_FILE = "icons";
+	private static final int VERSION = 4;
+
+	public static class Entry {
+		public final long lastUpdateTime;
+		public final long versionCode;
+		public final String iconPackKey;
+
+		// Null when the label was cached for a different locale.
+		public final String label;
+
+		// Kept compressed so the cache doesn't hold on to a decoded
+		// bitmap for every app.
+		private final byte[] png;
+		// Opaque icons are decoded as RGB_565.
+		private final boolean opaque;
+
+		private Entry(long lastUpdateTime, long versionCode,
+				String iconPackKey, String label, byte[] png,
+				boolean opaque) {
+			this.lastUpdateTime = lastUpdateTime;
+			this.versionCode = versionCode;
+			this.iconPackKey = iconPackKey;
+			this.label = label;
+			this.png = png;
+			this.opaque = opaque;
+		}
+
+		/**
+		 * Decodes the cached icon. Returns null if that fails.
+		 */
+		public Bitmap getBitmap() {
+			// Mutable so it can go into a BitmapPool when it's evicted.
+			BitmapFactory.Options options = new BitmapFactory.Options();
+			options.inMutable = true;
+			options.inPreferredConfig = opaque
+					? Bitmap.Config.RGB_565
+					: Bitmap.Config.ARGB_8888;
+			return BitmapFactory.decodeByteArray(png, 0, png.length,
+					options);
+		}
+
+		private Entry withLabel(String label) {
+			return new Entry(lastUpdateTime, versionCode, iconPackKey,
+					label, png, opaque);
+		}
+
+		private boolean matches(PackageInfo info, String iconPackKey) {
+			return info != null &&
+					info.lastUpdateTime == lastUpdateTime &&
+					getVersionCode(info) == versionCode &&
+					this.iconPackKey.equals(iconPackKey);
+		}
+	}
+
+	private final HashMap<LauncherItemKey, Entry> entries = new HashMap<>();
+
+	// Locale of the cached labels.
+	private String localeTag = getLocaleTag();
+	// Size the cached bitmaps have been rasterized for.
+	private int iconSize;
+	// Theme color the cached bitmaps have been rasterized with.
+	private int primaryColor;
+	private boolean restored = false;
+	private boolean dirty = false;
+
+	public synchronized boolean isEmpty() {
+		return entries.isEmpty();
+	}
+
+	public synchronized Map<LauncherItemKey, Entry> getEntries() {
+		checkLocale();
+		return new HashMap<>(entries);
+	}
+
+	/**
+	 * Returns the cached entry for the given key if it was created
+	 * from the same package version and icon pack, null otherwise.
+	 */
+	public synchronized Entry get(LauncherItemKey key, PackageInfo info,
+			String iconPackKey) {
+		checkLocale();
+		Entry entry = entries.get(key);
+		return entry != null && entry.matches(info, iconPackKey)
+				? entry
+				: null;
+	}
+
+	/**
+	 * Returns the cached icon for the given key without checking if
+	 * it's still valid, or null if there is none.
+	 */
+	public Bitmap getBitmap(LauncherItemKey key) {
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(key);
+		}
+		return entry != null ? entry.getBitmap() : null;
+	}
+
+	/**
+	 * Caches the given bitmap unless it was rasterized with a theme
+	 * color other than the current one.
+	 */
+	public void put(LauncherItemKey key, PackageInfo info,
+			String iconPackKey, String label, Bitmap bitmap,
+			int primaryColor) {
+		if (info == null || bitmap == null) {
+			return;
+		}
+		// Compress outside the lock.
+		ByteArrayOutputStream png = new ByteArrayOutputStream();
+		bitmap.compress(Bitmap.CompressFormat.PNG, 100, png);
+		Entry entry = new Entry(
+				info.lastUpdateTime,
+				getVersionCode(info),
+				iconPackKey,
+				label,
+				png.toByteArray(),
+				!bitmap.hasAlpha());
+		synchronized (this) {
+			if (primaryColor != this.primaryColor) {
+				// From an index pass that started before the color
+				// changed.
+				return;
+			}
+			checkLocale();
+			entries.put(key, entry);
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Updates the label of a cached entry after the locale changed.
+	 */
+	public synchronized void setLabel(LauncherItemKey key, String label) {
+		checkLocale();
+		Entry entry = entries.get(key);
+		if (entry != null && !label.equals(entry.label)) {
+			entries.put(key, entry.withLabel(label));
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Drops all entries that are not in the given set of keys.
+	 * Must only be called after a full index of all profiles.
+	 */
+	public synchronized void retain(Set<LauncherItemKey> keys) {
+		Iterator<LauncherItemKey> it = entries.keySet().iterator();
+		while (it.hasNext()) {
+			if (!keys.contains(it.next())) {
+				it.remove();
+				dirty = true;
+			}
+		}
+	}
+
+	/**
+	 * Drops all entries. Only bitmaps rasterized with the given
+	 * theme color are accepted afterwards.
+	 */
+	public synchronized void clear(Context context, int primaryColor) {
+		this.primaryColor = primaryColor;
+		entries.clear();
+		dirty = false;
+		getFile(context).delete();
+	}
+
+	/**
+	 * Restores the cache from disk. All entries are dropped if
+	 * iconSize or primaryColor differ from the size and theme color
+	 * they were rasterized with.
+	 */
+	public synchronized void restore(Context context, int iconSize,
+			int primaryColor) {
+		if (restored && iconSize == this.iconSize &&
+				primaryColor == this.primaryColor) {
+			return;
+		}
+		restored = true;
+		this.iconSize = iconSize;
+		this.primaryColor = primaryColor;
+		entries.clear();
+		localeTag = getLocaleTag();
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					getFile(context).openRead()));
+			if (in.readInt() != VERSION ||
+					in.readInt() != iconSize ||
+					in.readInt() != primaryColor) {
+				return;
+			}
+			boolean sameLocale = localeTag.equals(in.readUTF());
+			for (int i = 0, count = in.readInt(); i < count; ++i) {
+				String flatKey = in.readUTF();
+				long lastUpdateTime = in.readLong();
+				long versionCode = in.readLong();
+				String iconPackKey = in.readUTF();
+				String label = in.readUTF();
+				boolean opaque = in.readBoolean();
+				byte[] png = new byte[in.readInt()];
+				in.readFully(png);
+				LauncherItemKey key = LauncherItemKey.unflattenFromString(
+						context, flatKey);
+				if (key.componentName == null) {
+					continue;
+				}
+				entries.put(key, new Entry(
+						lastUpdateTime,
+						versionCode,
+						iconPackKey,
+						sameLocale ? label : null,
+						png,
+						opaque));
+			}
+		} catch (FileNotFoundException e) {
+			// Start with an empty cache.
+		} catch (IOException e) {
+			// Start with an empty cache.
+			entries.clear();
+		} finally {
+			close(in);
+		}
+	}
+
+	public synchronized void store(Context context) {
+		checkLocale();
+		if (!dirty) {
+			return;
+		}
+		AtomicFile file = getFile(context);
+		FileOutputStream fos = null;
+		try {
+			fos = file.startWrite();
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(fos));
+			out.writeInt(VERSION);
+			out.writeInt(iconSize);
+			out.writeInt(primaryColor);
+			out.writeUTF(localeTag);
+			int count = 0;
+			for (Entry entry : entries.values()) {
+				if (entry.label != null) {
+					++count;
+				}
+			}
+			out.writeInt(count);
+			for (Map.Entry<LauncherItemKey, Entry> it : entries.entrySet()) {
+				Entry entry = it.getValue();
+				if (entry.label == null) {
+					// Not resolved for the current locale.
+					continue;
+				}
+				LauncherItemKey key = it.getKey();
+				out.writeUTF(LauncherItemKey.flattenToString(
+						context, key.componentName, key.userHandle));
+				out.writeLong(entry.lastUpdateTime);
+				out.writeLong(entry.versionCode);
+				out.writeUTF(entry.iconPackKey);
+				out.writeUTF(entry.label);
+				out.writeBoolean(entry.opaque);
+				out.writeInt(entry.png.length);
+				out.write(entry.png);
+			}
+			out.flush();
+			file.finishWrite(fos);
+			dirty = false;
+		} catch (IOException e) {
+			if (fos != null) {
+				file.failWrite(fos);
+			}
+		}
+	}
+
+	public static long getVersionCode(PackageInfo info) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+			return info.getLongVersionCode();
+		} else {
+			//noinspection deprecation
+			return info.versionCode;
+		}
+	}
+
+	public static PackageInfo getPackageInfo(PackageManager pm,
+			String packageName) {
+		try {
+			// MATCH_UNINSTALLED_PACKAGES to also get packages that are
+			// only installed in a managed profile.
+			return pm.getPackageInfo(packageName,
+					PackageManager.MATCH_UNINSTALLED_PACKAGES);
+		} catch (PackageManager.NameNotFoundException e) {
+			return null;
+		}
+	}
+
+	// Forgets all labels when the locale has changed since they
+	// were resolved.
+	private void checkLocale() {
+		String tag = getLocaleTag();
+		if (tag.equals(localeTag)) {
+			return;
+		}
+		localeTag = tag;
+		for (Map.Entry<LauncherItemKey, Entry> it : entries.entrySet()) {
+			Entry entry = it.getValue();
+			if (entry.label != null) {
+				it.setValue(entry.withLabel(null));
+				dirty = true;
+			}
+		}
+	}
+
+	private static String getLocaleTag() {
+		return Locale.getDefault().toLanguageTag();
+	}
+
+	private static AtomicFile getFile(Context context) {
+		return new AtomicFile(new File(context.getCacheDir(), CACHE_FILE));
+	}
+
+	private static void close(DataInputStream in) {
+		if (in != null) {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// Ignore.
+			}
+		}
+	}
+}
@@ -0,0 +1,265 @@
+package com.pt.ifp.neolauncher.io;
+
+import android.content.Context;
+import android.util.AtomicFile;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compiled form of the appfilter.xml of an icon pack.
+ *
+ * Maps components to drawables and drawables to resource ids. It's
+ * written once per pack version and memory-mapped when it's loaded,
+ * so components are found by binary search without parsing the XML
+ * or building a map.
+ *
+ * File layout (all offsets are absolute):
+ * <pre>
+ * int version, long lastUpdateTime, int drawables, int components
+ * int[drawables] resource ids
+ * int[drawables] offsets of drawable names
+ * int[components] offsets of component records, sorted by name
+ * component record: int drawable, short length, UTF-8 name
+ * drawable name: short length, UTF-8 name
+ * </pre>
+ */
+public class IconPackIndex {
+	public interface ResourceResolver {
+		// Returns the resource id of the given drawable or 0.
+		int getIdentifier(String drawableName);
+	}
+
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 4 + 8 + 4 + 4;
+	private static final int MAX_NAME_LENGTH = 0xffff;
+	private static final String FILE_PREFIX = "iconpack-";
+
+	private final ByteBuffer buffer;
+	private final int drawableCount;
+	private final int componentCount;
+	private final int namesOffset;
+	private final int componentsOffset;
+
+	private IconPackIndex(ByteBuffer buffer) {
+		this.buffer = buffer;
+		drawableCount = buffer.getInt(12);
+		componentCount = buffer.getInt(16);
+		namesOffset = HEADER_SIZE + drawableCount * 4;
+		componentsOffset = namesOffset + drawableCount * 4;
+		if (drawableCount < 0 || componentCount < 0 ||
+				componentsOffset + componentCount * 4 > buffer.limit()) {
+			throw new IndexOutOfBoundsException("Truncated index");
+		}
+	}
+
+	/**
+	 * Returns the index of the given pack or null if there is none
+	 * for this version of the pack.
+	 */
+	public static IconPackIndex load(Context context, String packageName,
+			long lastUpdateTime) {
+		FileInputStream in = null;
+		try {
+			in = getFile(context, packageName).openRead();
+			FileChannel channel = in.getChannel();
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+					0, channel.size());
+			if (buffer.limit() < HEADER_SIZE ||
+					buffer.getInt(0) != VERSION ||
+					buffer.getLong(4) != lastUpdateTime) {
+				return null;
+			}
+			return new IconPackIndex(buffer);
+		} catch (FileNotFoundException e) {
+			return null;
+		} catch (IOException | RuntimeException e) {
+			// Corrupt, will be rebuilt.
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// Ignore.
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compiles and stores the index of the given pack. Returns the
+	 * index even if it can't be written.
+	 *
+	 * @param componentToDrawableNames the appfilter.xml entries in
+	 *                                 document order
+	 */
+	public static IconPackIndex build(Context context, String packageName,
+			long lastUpdateTime,
+			Map<String, String> componentToDrawableNames,
+			ResourceResolver resolver) {
+		// Drawables in order of their first appearance.
+		LinkedHashMap<String, Integer> drawables = new LinkedHashMap<>();
+		ArrayList<byte[]> components = new ArrayList<>();
+		IdentityHashMap<byte[], Integer> componentDrawables =
+				new IdentityHashMap<>();
+		int size = HEADER_SIZE;
+		for (Map.Entry<String, String> entry :
+				componentToDrawableNames.entrySet()) {
+			byte[] component = entry.getKey().getBytes(
+					StandardCharsets.UTF_8);
+			String drawable = entry.getValue();
+			if (component.length > MAX_NAME_LENGTH ||
+					drawable.getBytes(StandardCharsets.UTF_8).length >
+							MAX_NAME_LENGTH) {
+				continue;
+			}
+			Integer drawableIndex = drawables.get(drawable);
+			if (drawableIndex == null) {
+				drawableIndex = drawables.size();
+				drawables.put(drawable, drawableIndex);
+			}
+			components.add(component);
+			componentDrawables.put(component, drawableIndex);
+			size += 4 + 4 + 2 + component.length;
+		}
+		ArrayList<byte[]> names = new ArrayList<>(drawables.size());
+		for (String drawable : drawables.keySet()) {
+			byte[] name = drawable.getBytes(StandardCharsets.UTF_8);
+			names.add(name);
+			size += 4 + 4 + 2 + name.length;
+		}
+		components.sort(IconPackIndex::compareBytes);
+
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.putInt(VERSION);
+		buffer.putLong(lastUpdateTime);
+		buffer.putInt(names.size());
+		buffer.putInt(components.size());
+		for (String drawable : drawables.keySet()) {
+			buffer.putInt(resolver.getIdentifier(drawable));
+		}
+		int offset = HEADER_SIZE + names.size() * 8 + components.size() * 4;
+		for (byte[] name : names) {
+			buffer.putInt(offset);
+			offset += 2 + name.length;
+		}
+		for (byte[] component : components) {
+			buffer.putInt(offset);
+			offset += 4 + 2 + component.length;
+		}
+		for (byte[] name : names) {
+			buffer.putShort((short) name.length);
+			buffer.put(name);
+		}
+		for (byte[] component : components) {
+			buffer.putInt(componentDrawables.get(component));
+			buffer.putShort((short) component.length);
+			buffer.put(component);
+		}
+		buffer.rewind();
+		store(context, packageName, buffer.array());
+		return new IconPackIndex(buffer);
+	}
+
+	public int getDrawableCount() {
+		return drawableCount;
+	}
+
+	public String getDrawableName(int drawable) {
+		return getString(buffer.getInt(namesOffset + drawable * 4));
+	}
+
+	/**
+	 * Returns the resource id of the given drawable or 0 if the pack
+	 * doesn't have it.
+	 */
+	public int getResourceId(int drawable) {
+		return buffer.getInt(HEADER_SIZE + drawable * 4);
+	}
+
+	/**
+	 * Returns the drawable for the given component (as in
+	 * ComponentName.flattenToShortString()) or -1 if there is none.
+	 */
+	public int findDrawable(String component) {
+		byte[] key = component.getBytes(StandardCharsets.UTF_8);
+		int low = 0;
+		int high = componentCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int offset = buffer.getInt(componentsOffset + mid * 4);
+			int cmp = compare(offset + 4, key);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return buffer.getInt(offset);
+			}
+		}
+		return -1;
+	}
+
+	// Compares the string at the given offset with the given key.
+	private int compare(int offset, byte[] key) {
+		int length = buffer.getShort(offset) & 0xffff;
+		offset += 2;
+		for (int i = 0, n = Math.min(length, key.length); i < n; ++i) {
+			int cmp = (buffer.get(offset + i) & 0xff) - (key[i] & 0xff);
+			if (cmp != 0) {
+				return cmp;
+			}
+		}
+		return length - key.length;
+	}
+
+	private String getString(int offset) {
+		byte[] bytes = new byte[buffer.getShort(offset) & 0xffff];
+		offset += 2;
+		for (int i = 0; i < bytes.length; ++i) {
+			bytes[i] = buffer.get(offset + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static int compareBytes(byte[] a, byte[] b) {
+		for (int i = 0, n = Math.min(a.length, b.length); i < n; ++i) {
+			int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+			if (cmp != 0) {
+				return cmp;
+			}
+		}
+		return a.length - b.length;
+	}
+
+	private static void store(Context context, String packageName,
+			byte[] data) {
+		AtomicFile file = getFile(context, packageName);
+		FileOutputStream fos = null;
+		try {
+			fos = file.startWrite();
+			fos.write(data);
+			file.finishWrite(fos);
+		} catch (IOException e) {
+			if (fos != null) {
+				file.failWrite(fos);
+			}
+		}
+	}
+
+	private static AtomicFile getFile(Context context, String packageName) {
+		return new AtomicFile(new File(context.getCacheDir(),
+				FILE_PREFIX + packageName));
+	}
+}
@@ -30,6 +30,7 @@ public class Preferences {
 	public static final int SEARCH_STRICTNESS_HAMMING = 1;
 	public static final int SEARCH_STRICTNESS_CONTAINS = 2;
 	public static final int SEARCH_STRICTNESS_STARTS_WITH = 3;
+	public static final int SEARCH_STRICTNESS_FUZZY = 4;
 	public static final int SEARCH_PARAMETER_APP_LABEL = 0;
 	public static final int SEARCH_PARAMETER_PACKAGE_NAME = 1;
 	public static final int SHOW_APP_NAMES_ALWAYS = 0;
@@ -24,7 +24,8 @@ public class ConfigurationChangedReceiver extends BroadcastReceiver {
 		}
 		String action = intent.getAction();
 		if (Intent.ACTION_LOCALE_CHANGED.equals(action)) {
-			NeoLauncherApp.appMenu.indexAppsAsync(context);
+			// Only labels depend on the locale.
+			NeoLauncherApp.appMenu.relabelAppsAsync(context);
 		} else if (Intent.ACTION_CONFIGURATION_CHANGED.equals(action)) {
 			// Only index on color changes. `ACTION_CONFIGURATION_CHANGED`
 			// is sent for all kinds of changes and indexing should be
@@ -32,6 +33,8 @@ public class ConfigurationChangedReceiver extends BroadcastReceiver {
 			int newPrimaryColor = getPrimaryColor(context);
 			if (newPrimaryColor != lastPrimaryColor) {
 				lastPrimaryColor = newPrimaryColor;
+				// Cached icons were rendered with the old color.
+				NeoLauncherApp.appMenu.clearIconCache(context);
 				// Use `updateIconsAsync()` instead of `indexAppsAsync()`
 				// because indexing may already be running from
 				// `onPackageChanged()` but with the old color.
@@ -40,7 +43,10 @@ public class ConfigurationChangedReceiver extends BroadcastReceiver {
 		}
 	}
 
-	private int getPrimaryColor(Context context) {
+	/**
+	 * Returns the theme color icons are rasterized with.
+	 */
+	public static int getPrimaryColor(Context context) {
 		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
 			TypedValue typedValue = new TypedValue();
 			context.getTheme().resolveAttribute(
@@ -6,6 +6,7 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Build;
+import android.os.UserHandle;
 
 import com.pt.ifp.neolauncher.app.NeoLauncherApp;
 
@@ -19,17 +20,28 @@ public class ManagedProfileEventReceiver extends BroadcastReceiver {
 		}
 		String action = intent.getAction();
 		if (Intent.ACTION_MANAGED_PROFILE_ADDED.equals(action) ||
-				Intent.ACTION_MANAGED_PROFILE_REMOVED.equals(action)) {
-			NeoLauncherApp.appMenu.indexAppsAsync(context);
+				Intent.ACTION_MANAGED_PROFILE_REMOVED.equals(action) ||
+				Intent.ACTION_MANAGED_PROFILE_AVAILABLE.equals(action) ||
+				Intent.ACTION_MANAGED_PROFILE_UNLOCKED.equals(action)) {
+			// Only index the affected profile. If the intent doesn't
+			// name one, this falls back to indexing all profiles.
+			NeoLauncherApp.appMenu.indexAppsAsync(context, null,
+					getUserFromIntent(intent));
 		}
-		// Ignore:
-		// - ACTION_MANAGED_PROFILE_AVAILABLE
-		// - ACTION_MANAGED_PROFILE_UNAVAILABLE
-		// - ACTION_MANAGED_PROFILE_UNLOCKED
-		// added in API level 24.
+		// Ignore ACTION_MANAGED_PROFILE_UNAVAILABLE.
 		// When the managed profile is unavailable, trying to launch an app
 		// should propose to activate the profile and then launch the app (can
 		// take time). App icons can then be kept in the app list and pie menu
 		// all the time.
 	}
+
+	private static UserHandle getUserFromIntent(Intent intent) {
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU) {
+			//noinspection deprecation
+			return intent.getParcelableExtra(Intent.EXTRA_USER);
+		} else {
+			return intent.getParcelableExtra(Intent.EXTRA_USER,
+					UserHandle.class);
+		}
+	}
 }
@@ -10,7 +10,6 @@ import android.graphics.Paint;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.graphics.RectF;
-import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.os.SystemClock;
 import android.text.TextPaint;
@@ -29,6 +28,7 @@ import android.widget.OverScroller;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Future;
 
 import com.pt.ifp.neolauncher.R;
 import com.pt.ifp.neolauncher.activity.HomeActivity;
@@ -38,6 +38,7 @@ import com.pt.ifp.neolauncher.app.NeoLauncherApp;
 import com.pt.ifp.neolauncher.content.AppMenu;
 import com.pt.ifp.neolauncher.graphics.CanvasPieMenu;
 import com.pt.ifp.neolauncher.graphics.Converter;
+import com.pt.ifp.neolauncher.graphics.IconSizes;
 import com.pt.ifp.neolauncher.graphics.PieMenu;
 import com.pt.ifp.neolauncher.graphics.Ripple;
 import com.pt.ifp.neolauncher.menubar.CanvasMenuBar;
@@ -171,6 +172,11 @@ public class AppPieView extends View {
     private Bitmap iconChangeRadius;
     private boolean neverDropped = false;
     private boolean appListIsFiltered = false;
+    // 只在主執行緒存取
+    private int searchVersion;
+    // 要在結果出來後啟動 App 的查詢版本，0 表示沒有
+    private int launchVersion;
+    private Future<?> pendingSearch;
 
     // 由 dimen 換算後的實際 px（依 forced density）
     private int forceWpx;
@@ -267,6 +273,12 @@ public class AppPieView extends View {
         float sp = forcedScaledDensity;
         // <<< FORCE SCREEN OVERRIDE
 
+        // 依實際繪製密度產生 icon bitmap，在這之前建立的索引要重新點陣化
+        IconSizes.setDensity(dp);
+        if (NeoLauncherApp.appMenu.hasOutdatedIconSize(context)) {
+            NeoLauncherApp.appMenu.updateIconsAsync(context);
+        }
+
         // 1) 先取出「以實際裝置密度換算的 px」
         int wPxAtRealDensity = res.getDimensionPixelSize(R.dimen.app_widget_tabcontainers_width);
         int hPxAtRealDensity = res.getDimensionPixelSize(R.dimen.app_widget_tabcontainers_height);
@@ -357,6 +369,7 @@ public class AppPieView extends View {
                         ? 2L : 1L);
         doubleTapTimeout = ViewConfiguration.getDoubleTapTimeout();
 
+        NeoLauncherApp.appMenu.setIconListener(this::invalidateIcons);
         if (NeoLauncherApp.appMenu.isEmpty()) {
             NeoLauncherApp.appMenu.indexAppsAsync(context);
         }
@@ -539,25 +552,86 @@ public class AppPieView extends View {
     }
 
     public void filterAppList(String query) {
-        List<AppMenu.AppIcon> newAppList = NeoLauncherApp.appMenu.filterAppsBy(getContext(), query);
+        filterAppList(query, null);
+    }
+
+    /**
+     * @param onFiltered 結果套用後才呼叫，被較新的查詢取代時不會呼叫
+     */
+    public void filterAppList(String query, Runnable onFiltered) {
+        // 新的查詢會取代還沒跑完的查詢，除非還要從它的結果啟動 App
+        if (pendingSearch != null && searchVersion != launchVersion) {
+            pendingSearch.cancel(false);
+        }
+        final int version = ++searchVersion;
+        final Context context = getContext();
+        // Pie 只能在主執行緒讀取
+        final List<AppMenu.Icon> pieIcons =
+                new ArrayList<>(NeoLauncherApp.appMenu.icons);
+        // 在新結果出來前，舊清單的圖示不能被回收
+        NeoLauncherApp.appMenu.setAppListPending(true);
+        pendingSearch = NeoLauncherApp.executor.executeInteractive(() -> {
+            List<AppMenu.AppIcon> newAppList =
+                    NeoLauncherApp.appMenu.filterAppsBy(context, query,
+                            pieIcons);
+            post(() -> {
+                if (version == launchVersion) {
+                    launchVersion = 0;
+                    launchSelectedApp(newAppList, getSelectedApp(query));
+                }
+                // 過期的結果不能蓋掉較新的結果
+                if (version != searchVersion) {
+                    return;
+                }
+                pendingSearch = null;
+                setFilteredAppList(newAppList, query);
+                NeoLauncherApp.appMenu.setAppListPending(false);
+                if (onFiltered != null) {
+                    onFiltered.run();
+                }
+            });
+        });
+    }
+
+    private void setFilteredAppList(List<AppMenu.AppIcon> newAppList,
+            String query) {
         if (newAppList != null) {
             appList = newAppList;
         }
         appListIsFiltered = !TextUtils.isEmpty(query);
-        selectedApp = prefs.doubleSpaceLaunch()
-                ? (appListIsFiltered ? 0 : -1)
-                : getSelectedAppFromTrailingSpace(query);
+        selectedApp = getSelectedApp(query);
         scrollList(0, false);
         lastScrollY = 0;
         invalidate();
     }
 
+    private int getSelectedApp(String query) {
+        return prefs.doubleSpaceLaunch()
+                ? (TextUtils.isEmpty(query) ? -1 : 0)
+                : getSelectedAppFromTrailingSpace(query);
+    }
+
+    private void invalidateIcons(List<AppMenu.AppIcon> loaded) {
+        // 圖示是一批一批載入的，每批只重畫一次。硬體加速時 dirty rect
+        // 會被忽略，所以直接重畫整個 View
+        invalidate();
+    }
+
     public void launchSelectedAppFromList() {
-        if (selectedApp < 0 || isEmpty()) {
+        if (pendingSearch != null) {
+            // 清單還是上一個查詢的結果，等這次的結果出來再啟動
+            launchVersion = searchVersion;
             return;
         }
-        NeoLauncherApp.appMenu.launchApp(getContext(), appList.get(
-                clamp(selectedApp, 0, getIconCount() - 1)));
+        launchSelectedApp(appList, selectedApp);
+    }
+
+    private void launchSelectedApp(List<AppMenu.AppIcon> list, int selected) {
+        if (selected < 0 || list == null || list.isEmpty()) {
+            return;
+        }
+        NeoLauncherApp.appMenu.launchApp(getContext(), list.get(
+                clamp(selected, 0, list.size() - 1)));
     }
 
     public void endEditMode() {
@@ -662,7 +736,7 @@ public class AppPieView extends View {
             int ix = touch.x - (s >> 1);
             int iy = touch.y - (s >> 1);
             drawRect.set(ix, iy, ix + s, iy + s);
-            canvas.drawBitmap(draggedIcon.bitmap, null, drawRect, paintList);
+            draggedIcon.drawIcon(canvas, drawRect, paintList);
         }
 
         // ⑦ 畫 Scrollbar（固定在背景右側）
@@ -721,7 +795,7 @@ public class AppPieView extends View {
                 int cy = cell.centerY();
                 drawRect.set(cx - (s >> 1), cy - (s >> 1),
                         cx + (s >> 1), cy + (s >> 1));
-                canvas.drawBitmap(app.bitmap, null, drawRect, paintList);
+                app.drawIcon(canvas, drawRect, paintList);
             } else {
                 // 空槽畫個 +
                 int cx = cell.centerX(), cy = cell.centerY();
@@ -745,12 +819,10 @@ public class AppPieView extends View {
     }
 
     private AppMenu.AppIcon cloneForBar(AppMenu.AppIcon src) {
-        // 這裡的 Drawable 只用來餵給建構子；實際顯示會用 src.bitmap
-        Drawable ph = Converter.getDrawable(getResources(), R.drawable.ic_placeholder);
-        AppMenu.AppIcon d = new AppMenu.AppIcon(src.componentName, src.label, ph, src.userHandle);
-
-        // 可選：若你想直接沿用來源的 bitmap（避免取資源）
-        d.bitmap = src.bitmap;
+        // 直接共用來源的 bitmap，不另外產生副本
+        AppMenu.AppIcon d = new AppMenu.AppIcon(src.componentName, src.label, src.bitmap, src.userHandle);
+        d.largeBitmap = src.largeBitmap;
+        d.atlasRegion = src.atlasRegion;
 
         return d; // 不要重新 new hitRect（它是 final）
     }
@@ -793,7 +865,9 @@ public class AppPieView extends View {
                     android.graphics.drawable.Drawable d = pm.getActivityIcon(cn);
                     CharSequence labelCs = pm.getActivityInfo(cn, 0).loadLabel(pm);
                     String label = (labelCs == null) ? "" : labelCs.toString();
-                    AppMenu.AppIcon icon = new AppMenu.AppIcon(cn, label, d, null);
+                    // 以清單尺寸點陣化，與清單中相同的圖示共用同一個 bitmap
+                    AppMenu.AppIcon icon = new AppMenu.AppIcon(cn, label,
+                            Converter.getBitmapFromDrawable(d, IconSizes.getListSize(getContext())), null);
                     icon.hitRect = new Rect();
                     barSlots[i] = icon;
                 } catch (Exception e) {
@@ -2021,7 +2095,8 @@ public class AppPieView extends View {
                 int iy = y + vpad;
                 int mag = appIcon == highlightedIcon ? magSize : 0;
                 drawRect.set(ix - mag, iy - mag, ix + iconSize + mag, iy + iconSize + mag);
-                canvas.drawBitmap(appIcon.bitmap, null, drawRect, paintList);
+                NeoLauncherApp.appMenu.onIconDrawn(getContext(), appIcon);
+                appIcon.drawIcon(canvas, drawRect, paintList);
                 if (showAppNames) {
                     CharSequence label = TextUtils.ellipsize(appIcon.label, paintText, maxTextWidth, TextUtils.TruncateAt.END);
                     canvas.drawText(label, 0, label.length(), x + labelX, y + labelY, paintText);
@@ -2034,6 +2109,9 @@ public class AppPieView extends View {
             }
         }
 
+        // 超出記憶體預算時，釋放捲出畫面的圖示（Pie 與底部列除外）
+        NeoLauncherApp.appMenu.trimIconBitmaps(getContext(), barSlots);
+
         int maxHeight = y + listPadding + (x > xStart ? cellHeight : 0);
         int viewHeightMinusPadding = viewHeight - getPaddingBottom();
         maxScrollY = Math.max(maxHeight - viewHeightMinusPadding, 0);